@@ -0,0 +1,37 @@
+-- ============================================================
+-- TrafficMind 交通智脑 - 交通流多分辨率汇总表
+-- 数据库版本: MySQL 8.0
+-- 说明: 按 1 分钟 / 15 分钟 / 1 小时分桶汇总各路口的排队数和车辆数，
+--       长时间范围的图表查询直接读汇总表，不再扫描 traffic_flow_records 的 JSON 快照
+-- ============================================================
+
+USE traffic_mind;
+
+-- ============================================================
+-- 表: traffic_flow_rollups
+-- ============================================================
+CREATE TABLE IF NOT EXISTS traffic_flow_rollups (
+    resolution VARCHAR(8) NOT NULL COMMENT '分桶粒度: 1m / 15m / 1h',
+
+    intersection_id INT NOT NULL COMMENT '路口ID，-1 表示全路网',
+
+    bucket_start DATETIME NOT NULL COMMENT '分桶起始时间',
+
+    sample_count INT NOT NULL DEFAULT 0 COMMENT '分桶内的帧数',
+
+    queue_sum BIGINT NOT NULL DEFAULT 0 COMMENT '排队数累计值',
+
+    queue_max INT NOT NULL DEFAULT 0 COMMENT '排队数最大值',
+
+    vehicle_sum BIGINT NOT NULL DEFAULT 0 COMMENT '车辆数累计值',
+
+    vehicle_max INT NOT NULL DEFAULT 0 COMMENT '车辆数最大值',
+
+    -- 主键即查询顺序: 按粒度和路口取一段时间
+    PRIMARY KEY (resolution, intersection_id, bucket_start)
+
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='交通流多分辨率汇总表';
+
+-- ============================================================
+-- 初始化完成
+-- ============================================================
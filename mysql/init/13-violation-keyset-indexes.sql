@@ -0,0 +1,15 @@
+-- ============================================================
+-- TrafficMind 交通智脑 - 违章列表键集分页索引
+-- 数据库版本: MySQL 8.0
+-- 说明: 违章列表按 (occurred_at, id) 倒序做键集分页（WHERE (occurred_at, id) < 游标 LIMIT n），
+--       任意一页都只需从游标位置顺着索引读取 n 行，不再有深分页的 OFFSET 扫描。
+--       无筛选时使用 idx_occurred_at（InnoDB 二级索引隐含主键 id，即 (occurred_at, id)），
+--       按类型筛选时使用本脚本添加的 (violation_type, occurred_at, id)
+-- ============================================================
+
+SET NAMES utf8mb4;
+
+USE traffic_mind;
+
+-- 场景：按违章类型筛选的列表分页
+CREATE INDEX idx_type_occurred_id ON violations(violation_type, occurred_at, id);
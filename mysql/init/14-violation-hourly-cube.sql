@@ -0,0 +1,27 @@
+-- ============================================================
+-- TrafficMind 交通智脑 - 违章小时汇总表
+-- 数据库版本: MySQL 8.0
+-- 说明: 按 (小时, 路口, 违章类型, 处理状态) 预先汇总违章数量，
+--       上报和处理违章时在同一事务中增量维护，统计接口按小时桶读取，不再扫描 violations 明细
+-- ============================================================
+
+SET NAMES utf8mb4;
+
+USE traffic_mind;
+
+-- ============================================================
+-- 表: violation_hourly_cube
+-- ============================================================
+CREATE TABLE IF NOT EXISTS violation_hourly_cube (
+    bucket_hour DATETIME NOT NULL COMMENT '小时桶起始时间（按 occurred_at 截断到小时）',
+
+    intersection_id BIGINT NOT NULL COMMENT '路口ID',
+
+    violation_type VARCHAR(32) NOT NULL COMMENT '违章类型',
+
+    status VARCHAR(16) NOT NULL COMMENT '处理状态：PENDING / CONFIRMED / REJECTED',
+
+    violation_count INT NOT NULL DEFAULT 0 COMMENT '违章数量',
+
+    PRIMARY KEY (bucket_hour, intersection_id, violation_type, status)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='违章小时汇总表';
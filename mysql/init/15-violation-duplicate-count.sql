@@ -0,0 +1,15 @@
+-- ============================================================
+-- TrafficMind 交通智脑 - 违章重复上报合并计数
+-- 数据库版本: MySQL 8.0
+-- 说明: AI 流水线对同一车辆的同一违章会在连续多帧中重复上报。
+--       ViolationDeduplicator 把时间窗口内 (车牌, 路口, 方向, 违章类型) 相同的上报合并到首条记录，
+--       不再插入新行；duplicate_count 记录被合并的重复上报次数，
+--       合并时若重复上报的置信度更高，同时替换 image_url 和 ai_confidence
+-- ============================================================
+
+SET NAMES utf8mb4;
+
+USE traffic_mind;
+
+ALTER TABLE violations
+    ADD COLUMN duplicate_count INT NOT NULL DEFAULT 0 COMMENT '合并的重复上报次数' AFTER ai_confidence;
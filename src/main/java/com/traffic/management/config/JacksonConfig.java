@@ -2,10 +2,13 @@ package com.traffic.management.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
 
 /**
  * Jackson配置类
@@ -17,7 +20,27 @@ public class JacksonConfig {
     @Bean
     @Primary
     public ObjectMapper objectMapper() {
-        ObjectMapper mapper = new ObjectMapper();
+        return configure(new ObjectMapper());
+    }
+
+    /**
+     * CBOR 二进制编码，用于交通数据的紧凑传输（摄入接口、WebSocket、Redis）
+     */
+    @Bean
+    public CBORMapper cborObjectMapper() {
+        return configure(new CBORMapper());
+    }
+
+    /**
+     * 支持 Content-Type / Accept 为 application/cbor 的请求和响应
+     */
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(
+            @Qualifier("cborObjectMapper") CBORMapper cborObjectMapper) {
+        return new MappingJackson2CborHttpMessageConverter(cborObjectMapper);
+    }
+
+    private static <T extends ObjectMapper> T configure(T mapper) {
         // 注册JavaTimeModule以支持Java 8时间类型
         mapper.registerModule(new JavaTimeModule());
         // 禁用将日期写为时间戳
@@ -29,4 +52,4 @@ public class JacksonConfig {
 
         return mapper;
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package com.traffic.management.config;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -8,12 +10,16 @@ import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
 import com.traffic.management.handler.AlertWebSocketHandler;
 import com.traffic.management.handler.TrafficDataWebSocketHandler;
+import com.traffic.management.handler.TrafficIngestWebSocketHandler;
+import com.traffic.management.security.IngestHandshakeInterceptor;
 
 /**
  * WebSocket配置
  * 支持原有的告警WebSocket和新的任务通知STOMP协议
+ * 以及 LLM 端的数据摄入WebSocket
  */
 @Configuration
 @EnableWebSocket
@@ -22,11 +28,21 @@ public class WebSocketConfig implements WebSocketConfigurer, WebSocketMessageBro
 
     private final AlertWebSocketHandler alertWebSocketHandler;
     private final TrafficDataWebSocketHandler trafficDataWebSocketHandler;
+    private final TrafficIngestWebSocketHandler trafficIngestWebSocketHandler;
+    private final IngestHandshakeInterceptor ingestHandshakeInterceptor;
+
+    // 单条 WebSocket 消息的最大字节数，需容纳一帧完整的交通数据
+    @Value("${traffic.ingest.max-message-bytes:1048576}")
+    private int maxMessageBytes;
 
     public WebSocketConfig(AlertWebSocketHandler alertWebSocketHandler,
-                          TrafficDataWebSocketHandler trafficDataWebSocketHandler) {
+                          TrafficDataWebSocketHandler trafficDataWebSocketHandler,
+                          TrafficIngestWebSocketHandler trafficIngestWebSocketHandler,
+                          IngestHandshakeInterceptor ingestHandshakeInterceptor) {
         this.alertWebSocketHandler = alertWebSocketHandler;
         this.trafficDataWebSocketHandler = trafficDataWebSocketHandler;
+        this.trafficIngestWebSocketHandler = trafficIngestWebSocketHandler;
+        this.ingestHandshakeInterceptor = ingestHandshakeInterceptor;
     }
 
     // 原有的WebSocket配置（用于告警）
@@ -38,6 +54,19 @@ public class WebSocketConfig implements WebSocketConfigurer, WebSocketMessageBro
         // 注册交通数据WebSocket端点
         registry.addHandler(trafficDataWebSocketHandler, "/ws/traffic")
                 .setAllowedOrigins("*");
+
+        // 注册数据摄入WebSocket端点（LLM 端持续推送，握手时校验令牌）
+        registry.addHandler(trafficIngestWebSocketHandler, "/ws/ingest")
+                .addInterceptors(ingestHandshakeInterceptor)
+                .setAllowedOrigins("*");
+    }
+
+    @Bean
+    public ServletServerContainerFactoryBean createWebSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(maxMessageBytes);
+        container.setMaxBinaryMessageBufferSize(maxMessageBytes);
+        return container;
     }
 
     // 新的STOMP协议配置（用于任务通知）
@@ -1,7 +1,17 @@
 package com.traffic.management.controller;
 
+import com.traffic.management.handler.TrafficIngestWebSocketHandler;
+import com.traffic.management.handler.WebSocketFanoutEngine;
 import com.traffic.management.service.AIIntegrationService;
+import com.traffic.management.service.TrafficAnomalyDetector;
+import com.traffic.management.service.TrafficBroadcastScheduler;
 import com.traffic.management.service.TrafficDataService;
+import com.traffic.management.service.TrafficFlowWriteBehindService;
+import com.traffic.management.service.TrafficRollupService;
+import com.traffic.management.service.TrafficWalReplayer;
+import com.traffic.management.service.ViolationDeduplicator;
+import com.traffic.management.service.ViolationHeavyHitters;
+import com.traffic.management.service.ViolationPlateIndex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -10,6 +20,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import java.lang.management.ManagementFactory;
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -25,6 +36,36 @@ public class SystemStatusController {
     @Autowired
     private AIIntegrationService aiIntegrationService;
 
+    @Autowired
+    private TrafficFlowWriteBehindService writeBehindService;
+
+    @Autowired
+    private WebSocketFanoutEngine fanoutEngine;
+
+    @Autowired
+    private TrafficBroadcastScheduler broadcastScheduler;
+
+    @Autowired
+    private TrafficIngestWebSocketHandler ingestWebSocketHandler;
+
+    @Autowired
+    private TrafficWalReplayer walReplayer;
+
+    @Autowired
+    private TrafficRollupService rollupService;
+
+    @Autowired
+    private TrafficAnomalyDetector anomalyDetector;
+
+    @Autowired
+    private ViolationPlateIndex violationPlateIndex;
+
+    @Autowired
+    private ViolationHeavyHitters violationHeavyHitters;
+
+    @Autowired
+    private ViolationDeduplicator violationDeduplicator;
+
     // 3.1 获取系统状态
     @GetMapping("/status")
     public ResponseEntity<?> getSystemStatus() {
@@ -54,4 +95,26 @@ public class SystemStatusController {
             )
         ));
     }
-}
\ No newline at end of file
+
+    // 3.2 获取交通数据处理管线指标
+    @GetMapping("/pipeline")
+    public ResponseEntity<?> getPipelineMetrics() {
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("write_behind", writeBehindService.getStats());
+        metrics.put("write_ahead_log", walReplayer.getStats());
+        metrics.put("rollups", rollupService.getStats());
+        metrics.put("anomaly_detector", anomalyDetector.getStats());
+        metrics.put("broadcast_coalescing", broadcastScheduler.getStats());
+        metrics.put("websocket_fanout", fanoutEngine.getStats());
+        metrics.put("websocket_ingest", ingestWebSocketHandler.getStats());
+        metrics.put("violation_plate_index", violationPlateIndex.getStats());
+        metrics.put("violation_top_violators", violationHeavyHitters.getStats());
+        metrics.put("violation_dedupe", violationDeduplicator.getStats());
+
+        return ResponseEntity.ok(Map.of(
+            "code", 200,
+            "message", "success",
+            "data", metrics
+        ));
+    }
+}
@@ -11,6 +11,8 @@ import java.util.Map;
 
 /**
  * 专门用于接收 LLM 服务器推送的数据
+ * 请求体支持 JSON (默认) 和 CBOR (Content-Type: application/cbor)
+ * 持续推送的场景建议改用 /ws/ingest 长连接（见 TrafficIngestWebSocketHandler）
  */
 @Slf4j
 @RestController
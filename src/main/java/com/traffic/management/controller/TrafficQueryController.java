@@ -1,13 +1,19 @@
 package com.traffic.management.controller;
 
-import com.traffic.management.dto.traffic.TrafficDataDTO;
 import com.traffic.management.entity.TrafficFlowRecord;
 import com.traffic.management.service.TrafficDataService;
+import com.traffic.management.service.TrafficHistoryExportService;
+import com.traffic.management.service.TrafficLatestSnapshotService;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +22,7 @@ import java.util.Map;
  * 供前端查询交通数据的接口
  * 替代原 TrafficMonitorController 的部分功能
  */
+@Slf4j
 @RestController
 @RequestMapping("/api/traffic")
 public class TrafficQueryController {
@@ -23,19 +30,23 @@ public class TrafficQueryController {
     @Autowired
     private TrafficDataService trafficDataService;
 
+    @Autowired
+    private TrafficHistoryExportService exportService;
+
     // 1.2 前端获取最新交通数据
+    // 直接返回预渲染的响应字节；ResponseEntity 带 ETag 时，If-None-Match 匹配的请求由 Spring 返回 304
     @GetMapping("/latest")
     public ResponseEntity<?> getLatestTraffic() {
-        TrafficDataDTO data = trafficDataService.getLatestTrafficData();
-        if (data == null) {
+        TrafficLatestSnapshotService.Snapshot snapshot = trafficDataService.getLatestSnapshot();
+        if (snapshot == null) {
             // 如果 Redis 空，返回空结构防止前端报错
             return ResponseEntity.ok(Map.of("code", 200, "message", "No data yet", "data", Map.of()));
         }
-        return ResponseEntity.ok(Map.of(
-            "code", 200, 
-            "message", "success", 
-            "data", data
-        ));
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
     }
 
     // 1.3 获取交通数据历史记录
@@ -46,11 +57,88 @@ public class TrafficQueryController {
             @RequestParam(required = false, defaultValue = "100") Integer limit) {
         
         List<TrafficFlowRecord> records = trafficDataService.getHistory(start_time, end_time, limit);
+        String resolution = trafficDataService.getHistoryResolution(start_time, end_time, limit);
         
         return ResponseEntity.ok(Map.of(
             "code", 200,
             "message", "success",
-            "data", Map.of("records", records)
+            "data", Map.of("records", records, "resolution", resolution)
+        ));
+    }
+
+    // 1.4 获取单个路口的时序数据（不带时间范围时取内存缓冲中的最近数据，否则取汇总数据）
+    @GetMapping("/history/intersections/{id}")
+    public ResponseEntity<?> getIntersectionHistory(
+            @PathVariable Integer id,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime start_time,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end_time,
+            @RequestParam(required = false, defaultValue = "100") Integer limit) {
+
+        List<Map<String, Object>> points = start_time != null && end_time != null
+                ? trafficDataService.getIntersectionHistory(id, start_time, end_time, limit)
+                : trafficDataService.getIntersectionHistory(id, limit);
+
+        return ResponseEntity.ok(Map.of(
+            "code", 200,
+            "message", "success",
+            "data", Map.of("intersection_id", id, "points", points)
         ));
     }
-}
\ No newline at end of file
+
+    // 1.5 获取所有路口的拥堵统计（滑动窗口内的均值、最大值、p50/p95/p99）
+    @GetMapping("/stats/intersections")
+    public ResponseEntity<?> getIntersectionStatistics() {
+        return ResponseEntity.ok(Map.of(
+            "code", 200,
+            "message", "success",
+            "data", Map.of("intersections", trafficDataService.getIntersectionStatistics())
+        ));
+    }
+
+    // 1.6 获取单个路口及其各车道的拥堵统计
+    @GetMapping("/stats/intersections/{id}")
+    public ResponseEntity<?> getIntersectionStatistics(@PathVariable Integer id) {
+        Map<String, Object> stats = trafficDataService.getIntersectionStatistics(id);
+        if (stats == null) {
+            return ResponseEntity.status(404).body(Map.of("code", 404, "message", "No statistics for intersection " + id));
+        }
+        return ResponseEntity.ok(Map.of(
+            "code", 200,
+            "message", "success",
+            "data", stats
+        ));
+    }
+
+    // 1.7 流式导出交通数据历史记录 (NDJSON 或 CSV)，内存占用与时间范围无关
+    @GetMapping("/history/export")
+    public void exportHistory(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime start_time,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end_time,
+            @RequestParam(required = false, defaultValue = "ndjson") String format,
+            @RequestParam(required = false, defaultValue = "false") boolean include_snapshot,
+            HttpServletResponse response) {
+
+        TrafficHistoryExportService.Format exportFormat;
+        try {
+            exportFormat = TrafficHistoryExportService.Format.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            exportFormat = TrafficHistoryExportService.Format.NDJSON;
+        }
+
+        String fileName = String.format("traffic_history_%s.%s",
+                start_time.toLocalDate(), exportFormat == TrafficHistoryExportService.Format.CSV ? "csv" : "ndjson");
+        response.setContentType(exportFormat == TrafficHistoryExportService.Format.CSV
+                ? "text/csv;charset=UTF-8" : "application/x-ndjson;charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+
+        try (OutputStream out = response.getOutputStream()) {
+            exportService.export(start_time, end_time, exportFormat, include_snapshot, out);
+        } catch (Exception e) {
+            // 已开始写出时无法再修改状态码，只能中断响应
+            log.error("❌ 导出交通流记录失败", e);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+    }
+}
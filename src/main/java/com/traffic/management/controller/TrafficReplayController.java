@@ -0,0 +1,71 @@
+package com.traffic.management.controller;
+
+import com.traffic.management.service.TrafficReplayService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * 历史交通数据回放控制接口
+ * 回放数据推送到 /ws/traffic?channel=replay
+ */
+@RestController
+@RequestMapping("/api/traffic/replay")
+@PreAuthorize("hasRole('ADMIN')")
+public class TrafficReplayController {
+
+    @Autowired
+    private TrafficReplayService replayService;
+
+    // 开始回放，speed 为倍速 (1、10 ...)，<= 0 表示不限速
+    @PostMapping("/start")
+    public ResponseEntity<?> start(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime start_time,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end_time,
+            @RequestParam(required = false, defaultValue = "1") double speed) {
+        return success(replayService.start(start_time, end_time, speed));
+    }
+
+    @PostMapping("/pause")
+    public ResponseEntity<?> pause() {
+        return success(replayService.pause());
+    }
+
+    @PostMapping("/resume")
+    public ResponseEntity<?> resume() {
+        return success(replayService.resume());
+    }
+
+    @PostMapping("/seek")
+    public ResponseEntity<?> seek(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime position) {
+        try {
+            return success(replayService.seek(position));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(Map.of("code", 400, "message", e.getMessage()));
+        }
+    }
+
+    @PostMapping("/stop")
+    public ResponseEntity<?> stop() {
+        return success(replayService.stop());
+    }
+
+    @GetMapping("/status")
+    public ResponseEntity<?> status() {
+        return success(replayService.getStatus());
+    }
+
+    private ResponseEntity<?> success(Map<String, Object> status) {
+        return ResponseEntity.ok(Map.of(
+            "code", 200,
+            "message", "success",
+            "data", status
+        ));
+    }
+}
@@ -1,14 +1,21 @@
 package com.traffic.management.controller;
 
+import com.traffic.management.exception.BusinessException;
+import com.traffic.management.exception.ErrorCode;
 import com.traffic.management.handler.AlertWebSocketHandler;
+import com.traffic.management.service.PlateFuzzyMatcher;
+import com.traffic.management.service.ViolationCountService;
+import com.traffic.management.service.ViolationCubeService;
 import com.traffic.management.service.ViolationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,16 +23,33 @@ import java.util.Map;
 @RequestMapping("/api")
 public class ViolationController {
 
+    private static final double MAX_FUZZY_DISTANCE = 2;
+    private static final int MAX_FUZZY_LIMIT = 100;
+
     @Autowired
     private ViolationService violationService;
 
     @Autowired
     private AlertWebSocketHandler alertWebSocketHandler;
 
+    @Autowired
+    private PlateFuzzyMatcher plateFuzzyMatcher;
+
+    @Autowired
+    private ViolationCubeService violationCubeService;
+
     // POST /api/violations/report : 上报违章行为
+    // 去重窗口内的重复上报合并到已有记录，返回该记录ID且不再发送警报
     @PostMapping("/violations/report")
     public Map<String, Object> reportViolation(@RequestBody Map<String, Object> violation) {
-        var savedViolation = violationService.reportViolation(violation);
+        var outcome = violationService.reportViolationDeduplicated(violation);
+        var savedViolation = outcome.getViolation();
+        if (outcome.isDuplicate()) {
+            return Map.of(
+                    "id", savedViolation.getId(),
+                    "duplicate", true,
+                    "message", "Duplicate violation merged into existing record");
+        }
 
         // 发送实时警报
         String violationType = violation.containsKey("type") ? violation.get("type").toString() :
@@ -40,19 +64,49 @@ public class ViolationController {
                 "message", "Violation reported successfully");
     }
 
+    // POST /api/violations/report/batch : 批量上报违章，返回逐条结果
+    @PostMapping("/violations/report/batch")
+    public Map<String, Object> reportViolations(@RequestBody List<Map<String, Object>> violations) {
+        List<Map<String, Object>> results = violationService.reportViolations(violations);
+        long succeeded = results.stream().filter(result -> Boolean.TRUE.equals(result.get("success"))).count();
+
+        // 整批只发送一条汇总警报
+        if (succeeded > 0) {
+            alertWebSocketHandler.sendAlert("New violations detected: " + succeeded + " reported in batch");
+        }
+
+        return Map.of(
+                "total", results.size(),
+                "succeeded", succeeded,
+                "failed", results.size() - succeeded,
+                "results", results);
+    }
+
     // GET /api/violations : 查询违章记录列表
+    // 传 cursor 参数（第一页传空字符串）时使用键集分页，响应中的 nextCursor 用于请求下一页
     @GetMapping("/violations")
     public Map<String, Object> getViolations(
             @RequestParam(defaultValue = "0") int page,  // 改为0-based，与前端保持一致
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(required = false) String search,
-            @RequestParam(required = false) String type) {
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String cursor) {
+        if (cursor != null) {
+            Map<String, Object> result = new HashMap<>(violationService.getViolationsByCursor(cursor, size, search, type));
+            ViolationCountService.Total total = violationService.getViolationTotal(search, type);
+            result.put("total", total.getCount());
+            result.put("totalApproximate", total.isApproximate());
+            result.put("size", size);
+            return result;
+        }
+
         List<Map<String, Object>> violations = violationService.getViolations(page, size, search, type);
-        long total = violationService.getViolationCountWithFilter(search, type);
+        ViolationCountService.Total total = violationService.getViolationTotal(search, type);
 
         return Map.of(
                 "violations", violations,
-                "total", total,
+                "total", total.getCount(),
+                "totalApproximate", total.isApproximate(),  // 结果集很大时 total 为近似值
                 "page", page + 1,  // 返回给前端时转换为1-based显示
                 "size", size
         );
@@ -148,6 +202,80 @@ public class ViolationController {
         return violationService.getStatisticsHeatmap(startTime, endTime);
     }
 
+    /**
+     * TOP违规车牌，consolidate=true 时合并 OCR 识别误差范围内的车牌；
+     * 默认返回内存摘要的近似结果，exact=true 时按明细精确统计
+     * GET /api/violations/statistics/top-violators
+     */
+    @GetMapping("/violations/statistics/top-violators")
+    public Map<String, Object> getTopViolators(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(defaultValue = "false") boolean consolidate,
+            @RequestParam(defaultValue = "false") boolean exact) {
+
+        LocalDateTime startTime = getStartDateTime(startDate);
+        LocalDateTime endTime = getEndDateTime(endDate);
+
+        return violationService.getTopViolators(limit, startTime, endTime, consolidate, exact);
+    }
+
+    /**
+     * 去重车辆数（HyperLogLog 近似值）：任意路口集合在时间范围内有违章 / 被检测到的不同车辆数，
+     * 不传 intersectionIds 时统计全部路口
+     * GET /api/violations/statistics/distinct-vehicles
+     */
+    @GetMapping("/violations/statistics/distinct-vehicles")
+    public Map<String, Object> getDistinctVehicles(
+            @RequestParam(required = false) List<Long> intersectionIds,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(defaultValue = "violation") String metric) {
+
+        LocalDateTime startTime = getStartDateTime(startDate);
+        LocalDateTime endTime = getEndDateTime(endDate);
+
+        return violationService.getDistinctVehicles(metric, intersectionIds, startTime, endTime);
+    }
+
+    /**
+     * 车牌模糊查询：返回与 plate 的带权编辑距离不超过 maxDistance 的已知车牌
+     * （易混淆字符如 8/B、0/D 替换计 0.5 次编辑）
+     * GET /api/violations/plates/fuzzy
+     */
+    @GetMapping("/violations/plates/fuzzy")
+    public Map<String, Object> fuzzyPlateLookup(
+            @RequestParam String plate,
+            @RequestParam(defaultValue = "1") double maxDistance,
+            @RequestParam(defaultValue = "20") int limit) {
+        // 距离越大 BK 树剪枝越少，查询期间持有匹配器的锁会阻塞违章上报中的车牌登记
+        if (!(maxDistance >= 0 && maxDistance <= MAX_FUZZY_DISTANCE)) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR, "maxDistance 必须在 0 到 " + MAX_FUZZY_DISTANCE + " 之间");
+        }
+        if (limit < 1 || limit > MAX_FUZZY_LIMIT) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR, "limit 必须在 1 到 " + MAX_FUZZY_LIMIT + " 之间");
+        }
+        return Map.of(
+                "plate", plate,
+                "maxDistance", maxDistance,
+                "ready", plateFuzzyMatcher.isReady(),
+                "matches", plateFuzzyMatcher.search(plate, maxDistance, limit));
+    }
+
+    /**
+     * 从违章明细全量重建小时汇总表（管理员）
+     * POST /api/violations/statistics/cube/rebuild
+     */
+    @PostMapping("/violations/statistics/cube/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public Map<String, Object> rebuildStatisticsCube() {
+        long days = violationCubeService.rebuild();
+        return Map.of(
+                "days", days,
+                "message", "Violation statistics cube rebuilt successfully");
+    }
+
     // ========== 辅助方法 ==========
 
     /**
@@ -50,6 +50,13 @@ public class Violation {
     @Column(name = "ai_confidence")
     private Float aiConfidence;
 
+    /**
+     * 合并到本记录的重复上报次数（同一车辆同一违章在去重窗口内的后续上报），
+     * 只由 ViolationDeduplicator 用 UPDATE 累加，JPA 保存时不覆盖
+     */
+    @Column(name = "duplicate_count", nullable = false, updatable = false)
+    private Integer duplicateCount;
+
     @Column(name = "occurred_at", nullable = false)
     private LocalDateTime occurredAt;
 
@@ -89,6 +96,9 @@ public class Violation {
         if (appealStatus == null) {
             appealStatus = AppealStatus.NO_APPEAL;
         }
+        if (duplicateCount == null) {
+            duplicateCount = 0;
+        }
     }
 
     @PreUpdate
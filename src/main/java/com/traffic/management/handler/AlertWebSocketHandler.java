@@ -1,11 +1,11 @@
 package com.traffic.management.handler;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import java.io.IOException;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 @Component
@@ -13,8 +13,12 @@ public class AlertWebSocketHandler extends TextWebSocketHandler {
 
     private final CopyOnWriteArraySet<WebSocketSession> sessions = new CopyOnWriteArraySet<>();
 
+    @Autowired
+    private WebSocketFanoutEngine fanoutEngine;
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        fanoutEngine.register(session, "alerts");
         sessions.add(session);
     }
 
@@ -22,20 +26,14 @@ public class AlertWebSocketHandler extends TextWebSocketHandler {
     public void afterConnectionClosed(WebSocketSession session, org.springframework.web.socket.CloseStatus status)
             throws Exception {
         sessions.remove(session);
+        fanoutEngine.unregister(session);
     }
 
-    // 发送警报给所有连接的客户端
+    // 发送警报给所有连接的客户端（放入各会话的发送队列，异步发送）
     public void sendAlert(String message) {
         TextMessage textMessage = new TextMessage(message);
         for (WebSocketSession session : sessions) {
-            if (session.isOpen()) {
-                try {
-                    session.sendMessage(textMessage);
-                } catch (IOException e) {
-                    // 处理发送失败的情况
-                    sessions.remove(session);
-                }
-            }
+            fanoutEngine.send(session, textMessage);
         }
     }
-}
\ No newline at end of file
+}
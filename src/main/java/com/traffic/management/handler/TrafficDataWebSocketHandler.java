@@ -1,60 +1,364 @@
 package com.traffic.management.handler;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
 
-import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 处理 /ws/traffic 连接，用于向前端推送实时交通数据
+ *
+ * 连接时带 ?protocol=delta 的客户端使用增量协议（见 TrafficDeltaEncoder），
+ * 其余客户端每帧收到完整数据。
+ * 客户端可以只订阅部分路口或路口分组：
+ * {"action":"subscribe","intersections":[1,2],"groups":["downtown"]}、
+ * {"action":"unsubscribe",...}、{"action":"subscribe_all"}，
+ * 也可以在连接时通过 ?intersections=1,2 指定初始订阅。
+ * 连接时带 ?encoding=cbor 的客户端以 CBOR 二进制帧接收数据（默认 JSON 文本帧），
+ * 客户端发送的控制指令始终为 JSON 文本；服务端的控制消息（如 mode_changed）只发往实时频道，按会话编码发送。
+ * 连接时带 ?channel=replay 的客户端接收历史回放数据（见 TrafficReplayService），默认为实时数据 live。
+ * 每个频道有独立的增量编码器，seq 互不影响。
  */
 @Slf4j
 @Component
 public class TrafficDataWebSocketHandler extends TextWebSocketHandler {
 
+    public static final String CHANNEL_LIVE = "live";
+    public static final String CHANNEL_REPLAY = "replay";
+
+    // 会话属性：是否使用增量协议
+    private static final String ATTR_DELTA = "traffic.delta";
+
+    // 会话属性：订阅的路口ID集合，不存在表示订阅全路网
+    private static final String ATTR_SUBSCRIPTION = "traffic.subscription";
+
+    // 会话属性：是否使用 CBOR 二进制编码
+    private static final String ATTR_CBOR = "traffic.cbor";
+
+    // 会话属性：订阅的频道 (live / replay)
+    private static final String ATTR_CHANNEL = "traffic.channel";
+
     // 存储所有活跃的 WebSocket 会话
     private static final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("cborObjectMapper")
+    private CBORMapper cborObjectMapper;
+
+    @Autowired
+    private WebSocketFanoutEngine fanoutEngine;
+
+    @Value("${traffic.ws.keyframe-interval:50}")
+    private int keyframeInterval;
+
+    // 路口分组，格式: downtown:1,2,3;north:4,5
+    @Value("${traffic.ws.intersection-groups:}")
+    private String intersectionGroupsConfig;
+
+    // 各频道的增量编码器，只在 this 锁内访问
+    private final Map<String, TrafficDeltaEncoder> encoders = new HashMap<>();
+
+    private final Map<String, Set<Integer>> intersectionGroups = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (String group : intersectionGroupsConfig.split(";")) {
+            int colon = group.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            intersectionGroups.put(group.substring(0, colon).trim(), parseIds(group.substring(colon + 1)));
+        }
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        sessions.add(session);
-        log.info("New Traffic WebSocket connection: {}", session.getId());
+        MultiValueMap<String, String> params = session.getUri() != null
+                ? UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams()
+                : new LinkedMultiValueMap<>();
+        boolean delta = "delta".equals(params.getFirst("protocol"));
+        session.getAttributes().put(ATTR_DELTA, delta);
+        boolean cbor = "cbor".equals(params.getFirst("encoding"));
+        session.getAttributes().put(ATTR_CBOR, cbor);
+        String channel = CHANNEL_REPLAY.equals(params.getFirst("channel")) ? CHANNEL_REPLAY : CHANNEL_LIVE;
+        session.getAttributes().put(ATTR_CHANNEL, channel);
+
+        String initial = params.getFirst("intersections");
+        if (initial != null && !initial.isBlank()) {
+            session.getAttributes().put(ATTR_SUBSCRIPTION, Collections.unmodifiableSet(parseIds(initial)));
+        }
+
+        // 先发送当前关键帧再加入广播集合，保证客户端的 seq 连续
+        synchronized (this) {
+            fanoutEngine.register(session, "traffic");
+            if (delta) {
+                sendKeyframe(session);
+            }
+            sessions.add(session);
+        }
+        log.info("New Traffic WebSocket connection: {} (channel: {}, protocol: {}, encoding: {}, intersections: {})",
+                session.getId(), channel, delta ? "delta" : "full", cbor ? "cbor" : "json", describe(getSubscription(session)));
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         sessions.remove(session);
+        fanoutEngine.unregister(session);
         log.info("Traffic WebSocket connection closed: {}", session.getId());
     }
 
     /**
-     * 广播消息给所有连接的客户端
+     * 处理客户端消息：resync 重新获取关键帧；subscribe / unsubscribe / subscribe_all 修改订阅
+     */
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        JsonNode request;
+        try {
+            request = objectMapper.readTree(message.getPayload());
+        } catch (JsonProcessingException e) {
+            log.warn("无法解析客户端消息 session {}: {}", session.getId(), message.getPayload());
+            return;
+        }
+        String action = request.path("action").asText();
+        switch (action) {
+            case "resync" -> {
+                log.debug("客户端请求重新同步 session {}", session.getId());
+                synchronized (this) {
+                    sendKeyframe(session);
+                }
+            }
+            case "subscribe", "unsubscribe", "subscribe_all" -> updateSubscription(session, action, request);
+            default -> log.warn("未知的客户端指令 session {}: {}", session.getId(), action);
+        }
+    }
+
+    /**
+     * 修改会话订阅，回复当前订阅，并向增量协议客户端补发过滤后的关键帧
+     */
+    private synchronized void updateSubscription(WebSocketSession session, String action, JsonNode request)
+            throws JsonProcessingException {
+        Set<Integer> requested = new TreeSet<>();
+        for (JsonNode id : request.path("intersections")) {
+            requested.add(id.asInt());
+        }
+        for (JsonNode group : request.path("groups")) {
+            Set<Integer> members = intersectionGroups.get(group.asText());
+            if (members != null) {
+                requested.addAll(members);
+            } else {
+                log.warn("未知的路口分组 session {}: {}", session.getId(), group.asText());
+            }
+        }
+
+        Set<Integer> current = getSubscription(session);
+        Set<Integer> updated;
+        if ("subscribe_all".equals(action)) {
+            updated = null;
+        } else if ("subscribe".equals(action)) {
+            // 全路网订阅时 subscribe 表示切换为只看指定路口
+            updated = new TreeSet<>(current != null ? current : Collections.emptySet());
+            updated.addAll(requested);
+        } else {
+            // 全路网订阅时以当前路网中的全部路口为基准
+            updated = new TreeSet<>(current != null ? current : encoderFor(getChannel(session)).knownIntersections());
+            updated.removeAll(requested);
+        }
+
+        if (updated == null) {
+            session.getAttributes().remove(ATTR_SUBSCRIPTION);
+        } else {
+            session.getAttributes().put(ATTR_SUBSCRIPTION, Collections.unmodifiableSet(updated));
+        }
+
+        Map<String, Object> ack = new LinkedHashMap<>();
+        ack.put("type", "subscription");
+        ack.put("intersections", updated != null ? updated : "all");
+        send(session, encode(session, ack));
+        if (isDeltaSession(session)) {
+            sendKeyframe(session);
+        }
+        log.debug("会话 {} 订阅变更: {}", session.getId(), describe(updated));
+    }
+
+    /**
+     * 编码并向实时频道广播一帧交通数据
+     */
+    public void broadcastTrafficData(TrafficDataDTO dataDTO) throws JsonProcessingException {
+        broadcastTrafficData(CHANNEL_LIVE, dataDTO);
+    }
+
+    /**
+     * 编码并向指定频道广播一帧交通数据
+     * 协议、编码和订阅都相同的会话共享同一条消息，每种组合只序列化一次
+     */
+    public synchronized void broadcastTrafficData(String channel, TrafficDataDTO dataDTO) throws JsonProcessingException {
+        TrafficDeltaEncoder.Frame frame = encoderFor(channel).next(dataDTO);
+
+        if (sessions.isEmpty()) {
+            log.debug("没有前端连接到WebSocket, 跳过广播 (channel: {}, seq: {})", channel, frame.getSeq());
+            return;
+        }
+
+        Map<PayloadKey, WebSocketMessage<?>> messages = new HashMap<>();
+        int receivers = 0;
+        for (WebSocketSession session : sessions) {
+            if (!channel.equals(getChannel(session))) {
+                continue;
+            }
+            receivers++;
+            Set<Integer> subscription = getSubscription(session);
+            boolean full = frame.isKeyframe() || !isDeltaSession(session);
+            PayloadKey key = new PayloadKey(full, isCborSession(session), subscription);
+            WebSocketMessage<?> message = messages.get(key);
+            if (message == null) {
+                Object payload = full
+                        ? TrafficDeltaEncoder.fullMessage(frame.getSeq(), TrafficDeltaEncoder.filter(dataDTO, subscription))
+                        : TrafficDeltaEncoder.filterDelta(frame.getDelta(), subscription);
+                message = encode(session, payload);
+                messages.put(key, message);
+            }
+            send(session, message);
+        }
+
+        log.debug("📡 广播完成 {} seq {}, 发送给 {} 个客户端 (keyframe: {}, 序列化 {} 次)",
+                channel, frame.getSeq(), receivers, frame.isKeyframe(), messages.size());
+    }
+
+    /**
+     * 向实时频道的客户端广播控制消息（如信号控制模式变化），按各会话协商的编码发送，
+     * JSON 和 CBOR 各最多序列化一次
      */
-    public void broadcast(String message) {
-        log.info("🔔 准备广播交通数据，当前连接数: {}", sessions.size());
+    public void broadcast(Object payload) throws JsonProcessingException {
+        log.info("🔔 准备广播控制消息，当前连接数: {}", sessions.size());
 
         if (sessions.isEmpty()) {
             log.warn("⚠️ 没有前端连接到WebSocket! 数据无法推送");
             return;
         }
 
-        sessions.forEach(session -> {
-            if (session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(message));
-                    log.debug("✅ 成功发送到session: {}", session.getId());
-                } catch (IOException e) {
-                    log.error("❌ 发送失败 session {}", session.getId(), e);
-                }
+        Map<Boolean, WebSocketMessage<?>> messages = new HashMap<>();
+        int receivers = 0;
+        for (WebSocketSession session : sessions) {
+            if (!CHANNEL_LIVE.equals(getChannel(session))) {
+                continue;
+            }
+            WebSocketMessage<?> message = messages.get(isCborSession(session));
+            if (message == null) {
+                message = encode(session, payload);
+                messages.put(isCborSession(session), message);
+            }
+            send(session, message);
+            receivers++;
+        }
+
+        log.info("📡 广播完成，发送给 {} 个客户端", receivers);
+    }
+
+    private void sendKeyframe(WebSocketSession session) throws JsonProcessingException {
+        Map<String, Object> keyframe = encoderFor(getChannel(session)).currentKeyframe(getSubscription(session));
+        if (keyframe != null) {
+            send(session, encode(session, keyframe));
+        }
+    }
+
+    /**
+     * 按会话协商的编码序列化：CBOR 二进制帧或 JSON 文本帧
+     */
+    private WebSocketMessage<?> encode(WebSocketSession session, Object payload) throws JsonProcessingException {
+        if (isCborSession(session)) {
+            return new BinaryMessage(cborObjectMapper.writeValueAsBytes(payload));
+        }
+        return new TextMessage(objectMapper.writeValueAsString(payload));
+    }
+
+    /**
+     * 放入会话的发送队列，由 WebSocketFanoutEngine 异步发送
+     */
+    private void send(WebSocketSession session, WebSocketMessage<?> message) {
+        fanoutEngine.send(session, message);
+    }
+
+    private TrafficDeltaEncoder encoderFor(String channel) {
+        return encoders.computeIfAbsent(channel, key -> new TrafficDeltaEncoder(keyframeInterval));
+    }
+
+    /**
+     * 重置频道的增量编码状态，回放跳转时调用，下一帧作为关键帧发送
+     */
+    public synchronized void resetChannel(String channel) {
+        encoders.remove(channel);
+    }
+
+    private String getChannel(WebSocketSession session) {
+        return (String) session.getAttributes().getOrDefault(ATTR_CHANNEL, CHANNEL_LIVE);
+    }
+
+    private boolean isDeltaSession(WebSocketSession session) {
+        return Boolean.TRUE.equals(session.getAttributes().get(ATTR_DELTA));
+    }
+
+    private boolean isCborSession(WebSocketSession session) {
+        return Boolean.TRUE.equals(session.getAttributes().get(ATTR_CBOR));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Integer> getSubscription(WebSocketSession session) {
+        return (Set<Integer>) session.getAttributes().get(ATTR_SUBSCRIPTION);
+    }
+
+    private static Set<Integer> parseIds(String ids) {
+        Set<Integer> result = new TreeSet<>();
+        for (String id : ids.split(",")) {
+            try {
+                result.add(Integer.parseInt(id.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("忽略无效的路口ID: {}", id);
             }
-        });
+        }
+        return result;
+    }
+
+    private static String describe(Set<Integer> subscription) {
+        return subscription != null ? subscription.toString() : "all";
+    }
 
-        log.info("📡 广播完成，发送给 {} 个客户端", sessions.size());
+    /**
+     * 广播消息的复用键：完整帧/增量帧、编码、订阅集合（null 表示全路网）
+     */
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class PayloadKey {
+        private final boolean full;
+        private final boolean cbor;
+        private final Set<Integer> subscription;
     }
-}
\ No newline at end of file
+}
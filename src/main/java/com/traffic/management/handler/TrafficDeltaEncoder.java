@@ -0,0 +1,260 @@
+package com.traffic.management.handler;
+
+import com.traffic.management.dto.traffic.IntersectionDTO;
+import com.traffic.management.dto.traffic.LaneDTO;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * /ws/traffic 增量协议编码器
+ *
+ * 关键帧 (traffic_update) 携带完整的 TrafficDataDTO；
+ * 增量帧 (traffic_delta) 只包含相对上一帧发生变化的路口字段和车道。
+ * 每帧带递增的 seq，增量帧的 base_seq 为上一帧的 seq，
+ * 客户端发现不连续时发送 {"action":"resync"} 重新获取关键帧。
+ *
+ * 非线程安全，由 TrafficDataWebSocketHandler 加锁调用。
+ */
+class TrafficDeltaEncoder {
+
+    static final String TYPE_FULL = "traffic_update";
+    static final String TYPE_DELTA = "traffic_delta";
+
+    private final int keyframeInterval;
+
+    // 上一帧各路口的状态，作为下一帧增量的基准
+    private Map<Integer, IntersectionDTO> previous = new HashMap<>();
+    private TrafficDataDTO lastFrame;
+    private long seq;
+
+    TrafficDeltaEncoder(int keyframeInterval) {
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+    }
+
+    /**
+     * 编码下一帧
+     */
+    Frame next(TrafficDataDTO dto) {
+        seq++;
+        boolean keyframe = lastFrame == null || seq % keyframeInterval == 0;
+
+        Map<Integer, IntersectionDTO> current = new LinkedHashMap<>();
+        if (dto.getIntersections() != null) {
+            for (IntersectionDTO intersection : dto.getIntersections()) {
+                if (intersection != null && intersection.getId() != null) {
+                    current.put(intersection.getId(), intersection);
+                }
+            }
+        }
+
+        Map<String, Object> delta = keyframe ? null : buildDelta(dto, current);
+
+        previous = current;
+        lastFrame = dto;
+        return new Frame(seq, keyframe, delta);
+    }
+
+    /**
+     * 当前状态的关键帧消息，用于新连接、订阅变更和客户端重新同步；尚无数据时返回 null
+     *
+     * @param subscription 订阅的路口ID，null 表示全路网
+     */
+    Map<String, Object> currentKeyframe(Set<Integer> subscription) {
+        return lastFrame != null ? fullMessage(seq, filter(lastFrame, subscription)) : null;
+    }
+
+    long currentSeq() {
+        return seq;
+    }
+
+    /**
+     * 最近一帧中出现的全部路口ID
+     */
+    Set<Integer> knownIntersections() {
+        return previous.keySet();
+    }
+
+    static Map<String, Object> fullMessage(long seq, TrafficDataDTO dto) {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", TYPE_FULL);
+        message.put("seq", seq);
+        message.put("keyframe", true);
+        message.put("data", dto);
+        return message;
+    }
+
+    /**
+     * 只保留订阅路口的完整帧；全路网统计值保持不变
+     */
+    static TrafficDataDTO filter(TrafficDataDTO dto, Set<Integer> subscription) {
+        if (subscription == null) {
+            return dto;
+        }
+        TrafficDataDTO filtered = new TrafficDataDTO();
+        filtered.setType(dto.getType());
+        filtered.setTimestamp(dto.getTimestamp());
+        filtered.setStep(dto.getStep());
+        filtered.setRoadnet(dto.getRoadnet());
+        filtered.setTrafficflow(dto.getTrafficflow());
+        filtered.setControlMode(dto.getControlMode());
+        filtered.setTotalIntersections(dto.getTotalIntersections());
+        filtered.setTotalQueue(dto.getTotalQueue());
+        filtered.setTotalVehicles(dto.getTotalVehicles());
+        List<IntersectionDTO> intersections = new ArrayList<>();
+        if (dto.getIntersections() != null) {
+            for (IntersectionDTO intersection : dto.getIntersections()) {
+                if (intersection != null && subscription.contains(intersection.getId())) {
+                    intersections.add(intersection);
+                }
+            }
+        }
+        filtered.setIntersections(intersections);
+        return filtered;
+    }
+
+    /**
+     * 只保留订阅路口的增量帧
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> filterDelta(Map<String, Object> delta, Set<Integer> subscription) {
+        if (subscription == null) {
+            return delta;
+        }
+        Map<String, Object> data = new LinkedHashMap<>((Map<String, Object>) delta.get("data"));
+
+        List<Map<String, Object>> intersections = new ArrayList<>();
+        for (Map<String, Object> intersection : (List<Map<String, Object>>) data.get("intersections")) {
+            if (subscription.contains(intersection.get("id"))) {
+                intersections.add(intersection);
+            }
+        }
+        data.put("intersections", intersections);
+
+        List<Integer> removed = (List<Integer>) data.remove("removed_intersections");
+        if (removed != null) {
+            List<Integer> filteredRemoved = new ArrayList<>();
+            for (Integer id : removed) {
+                if (subscription.contains(id)) {
+                    filteredRemoved.add(id);
+                }
+            }
+            if (!filteredRemoved.isEmpty()) {
+                data.put("removed_intersections", filteredRemoved);
+            }
+        }
+
+        Map<String, Object> message = new LinkedHashMap<>(delta);
+        message.put("data", data);
+        return message;
+    }
+
+    private Map<String, Object> buildDelta(TrafficDataDTO dto, Map<Integer, IntersectionDTO> current) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        putIfNotNull(data, "timestamp", dto.getTimestamp());
+        putIfNotNull(data, "step", dto.getStep());
+        putIfNotNull(data, "control_mode", dto.getControlMode());
+        putIfNotNull(data, "total_intersections", dto.getTotalIntersections());
+        putIfNotNull(data, "total_queue", dto.getTotalQueue());
+        putIfNotNull(data, "total_vehicles", dto.getTotalVehicles());
+
+        List<Map<String, Object>> changed = new ArrayList<>();
+        for (Map.Entry<Integer, IntersectionDTO> entry : current.entrySet()) {
+            Map<String, Object> diff = diffIntersection(previous.get(entry.getKey()), entry.getValue());
+            if (diff != null) {
+                changed.add(diff);
+            }
+        }
+        data.put("intersections", changed);
+
+        List<Integer> removed = new ArrayList<>();
+        for (Integer id : previous.keySet()) {
+            if (!current.containsKey(id)) {
+                removed.add(id);
+            }
+        }
+        if (!removed.isEmpty()) {
+            data.put("removed_intersections", removed);
+        }
+
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("type", TYPE_DELTA);
+        message.put("seq", seq);
+        message.put("base_seq", seq - 1);
+        message.put("data", data);
+        return message;
+    }
+
+    /**
+     * 比较单个路口，无变化返回 null；新路口或车道集合变化时返回带 replace 标记的完整路口
+     */
+    private Map<String, Object> diffIntersection(IntersectionDTO before, IntersectionDTO after) {
+        if (after.equals(before)) {
+            return null;
+        }
+
+        Map<String, Object> diff = new LinkedHashMap<>();
+        diff.put("id", after.getId());
+
+        Map<String, LaneDTO> oldLanes = before != null ? before.getLanes() : null;
+        Map<String, LaneDTO> newLanes = after.getLanes();
+        boolean sameLaneSet = oldLanes != null && newLanes != null && oldLanes.keySet().equals(newLanes.keySet());
+
+        if (before == null || !sameLaneSet) {
+            diff.put("replace", true);
+            putIfNotNull(diff, "signal_phase", after.getSignalPhase());
+            putIfNotNull(diff, "phase_code", after.getPhaseCode());
+            putIfNotNull(diff, "queue_length", after.getQueueLength());
+            putIfNotNull(diff, "vehicle_count", after.getVehicleCount());
+            putIfNotNull(diff, "lanes", newLanes);
+            return diff;
+        }
+
+        putIfChanged(diff, "signal_phase", before.getSignalPhase(), after.getSignalPhase());
+        putIfChanged(diff, "phase_code", before.getPhaseCode(), after.getPhaseCode());
+        putIfChanged(diff, "queue_length", before.getQueueLength(), after.getQueueLength());
+        putIfChanged(diff, "vehicle_count", before.getVehicleCount(), after.getVehicleCount());
+
+        Map<String, LaneDTO> changedLanes = new LinkedHashMap<>();
+        for (Map.Entry<String, LaneDTO> lane : newLanes.entrySet()) {
+            if (!Objects.equals(lane.getValue(), oldLanes.get(lane.getKey()))) {
+                changedLanes.put(lane.getKey(), lane.getValue());
+            }
+        }
+        if (!changedLanes.isEmpty()) {
+            diff.put("lanes", changedLanes);
+        }
+        return diff;
+    }
+
+    private static void putIfChanged(Map<String, Object> target, String key, Object before, Object after) {
+        if (!Objects.equals(before, after)) {
+            target.put(key, after);
+        }
+    }
+
+    private static void putIfNotNull(Map<String, Object> target, String key, Object value) {
+        if (value != null) {
+            target.put(key, value);
+        }
+    }
+
+    /**
+     * 一帧的编码结果；关键帧的 delta 为 null
+     */
+    @Getter
+    @AllArgsConstructor
+    static class Frame {
+        private final long seq;
+        private final boolean keyframe;
+        private final Map<String, Object> delta;
+    }
+}
@@ -0,0 +1,224 @@
+package com.traffic.management.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import com.traffic.management.service.TrafficDataService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 处理 /ws/ingest 连接，用于 LLM 端持续推送交通数据帧
+ *
+ * 每条消息是一帧 TrafficDataDTO（JSON 文本帧或 CBOR 二进制帧），
+ * 在会话接收线程上依次进入 TrafficDataService.processFrame，同一连接内的帧按到达顺序处理，
+ * 处理速度跟不上时自然对发送端形成背压。
+ * 每处理 traffic.ingest.ack-batch-size 帧，或距上次确认超过 traffic.ingest.ack-interval-ms，
+ * 回复一次批量确认：{"type":"ack","stream":...,"received":...,"failed":...,"last_step":...}。
+ * 客户端发送 {"type":"heartbeat"} 时立即回复当前确认。
+ * 连接需通过 IngestHandshakeInterceptor 认证，?stream= 指定数据流名称（默认为会话ID）。
+ */
+@Slf4j
+@Component
+public class TrafficIngestWebSocketHandler extends AbstractWebSocketHandler {
+
+    private static final String ATTR_STREAM = "ingest.stream";
+
+    @Autowired
+    private TrafficDataService trafficDataService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("cborObjectMapper")
+    private CBORMapper cborObjectMapper;
+
+    @Value("${traffic.ingest.ack-batch-size:50}")
+    private int ackBatchSize;
+
+    @Value("${traffic.ingest.ack-interval-ms:1000}")
+    private long ackIntervalMs;
+
+    private final Map<String, StreamState> streams = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        String stream = session.getUri() != null
+                ? UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst("stream")
+                : null;
+        if (stream == null || stream.isBlank()) {
+            stream = session.getId();
+        }
+        StreamState state = new StreamState(stream);
+        if (streams.putIfAbsent(stream, state) != null) {
+            // 同一数据流只允许一个连接，否则无法保证帧顺序
+            log.warn("⚠️ 数据流 {} 已有连接, 拒绝会话 {}", stream, session.getId());
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("stream already connected"));
+            return;
+        }
+        session.getAttributes().put(ATTR_STREAM, state);
+        log.info("New Ingest WebSocket connection: {} (stream: {})", session.getId(), stream);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        StreamState state = getState(session);
+        if (state != null) {
+            streams.remove(state.stream, state);
+            log.info("Ingest WebSocket connection closed: {} (stream: {}, received: {}, failed: {})",
+                    session.getId(), state.stream, state.received, state.failed);
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(message.getPayload());
+        } catch (IOException e) {
+            rejectFrame(session, e);
+            return;
+        }
+        handleFrame(session, node, objectMapper);
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        JsonNode node;
+        try {
+            ByteBuffer payload = message.getPayload();
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            node = cborObjectMapper.readTree(bytes);
+        } catch (IOException e) {
+            rejectFrame(session, e);
+            return;
+        }
+        handleFrame(session, node, cborObjectMapper);
+    }
+
+    private void handleFrame(WebSocketSession session, JsonNode node, ObjectMapper mapper) throws IOException {
+        StreamState state = getState(session);
+        if (state == null) {
+            return;
+        }
+        if ("heartbeat".equals(node.path("type").asText())) {
+            sendAck(session, state);
+            return;
+        }
+
+        TrafficDataDTO dto;
+        try {
+            dto = mapper.treeToValue(node, TrafficDataDTO.class);
+        } catch (IOException e) {
+            rejectFrame(session, e);
+            return;
+        }
+
+        boolean ok = trafficDataService.processFrame(dto);
+        synchronized (state) {
+            state.received++;
+            state.unacked++;
+            if (ok) {
+                state.lastStep = dto.getStep();
+            } else {
+                state.failed++;
+            }
+        }
+        if (state.unacked >= ackBatchSize || System.currentTimeMillis() - state.lastAckAt >= ackIntervalMs) {
+            sendAck(session, state);
+        }
+    }
+
+    private void rejectFrame(WebSocketSession session, Exception e) {
+        StreamState state = getState(session);
+        if (state != null) {
+            synchronized (state) {
+                state.received++;
+                state.unacked++;
+                state.failed++;
+            }
+        }
+        log.warn("无法解析摄入数据帧 session {}: {}", session.getId(), e.getMessage());
+    }
+
+    /**
+     * 发送批量确认；只在会话接收线程上调用，不会与其他发送并发
+     */
+    private void sendAck(WebSocketSession session, StreamState state) throws IOException {
+        Map<String, Object> ack = new LinkedHashMap<>();
+        synchronized (state) {
+            ack.put("type", "ack");
+            ack.put("stream", state.stream);
+            ack.put("received", state.received);
+            ack.put("failed", state.failed);
+            ack.put("last_step", state.lastStep);
+            state.unacked = 0;
+            state.lastAckAt = System.currentTimeMillis();
+        }
+        if (session.isOpen()) {
+            session.sendMessage(new TextMessage(objectMapper.writeValueAsString(ack)));
+        }
+    }
+
+    private StreamState getState(WebSocketSession session) {
+        return (StreamState) session.getAttributes().get(ATTR_STREAM);
+    }
+
+    /**
+     * 各摄入数据流的指标（已接收帧数、失败帧数、最后处理的 step）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ackBatchSize", ackBatchSize);
+        List<Map<String, Object>> streamStats = new ArrayList<>();
+        for (StreamState state : streams.values()) {
+            Map<String, Object> item = new HashMap<>();
+            synchronized (state) {
+                item.put("stream", state.stream);
+                item.put("received", state.received);
+                item.put("failed", state.failed);
+                item.put("lastStep", state.lastStep);
+            }
+            streamStats.add(item);
+        }
+        stats.put("streams", streamStats);
+        return stats;
+    }
+
+    /**
+     * 单个数据流的摄入状态，字段由自身的锁保护
+     */
+    private static final class StreamState {
+        final String stream;
+        long received;
+        long failed;
+        long unacked;
+        long lastAckAt = System.currentTimeMillis();
+        Integer lastStep;
+
+        StreamState(String stream) {
+            this.stream = stream;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.traffic.management.handler;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WebSocket 推送引擎
+ *
+ * 每个会话有一个有界发送队列，由独立的发送线程池异步发送，
+ * 摄入线程只负责入队，不会被某个卡住的浏览器阻塞。
+ * 同一条消息对象在所有会话间共享，只序列化一次。
+ * 队列满时按 websocket.fanout.slow-consumer-policy 处理慢消费者。
+ */
+@Slf4j
+@Component
+public class WebSocketFanoutEngine {
+
+    /**
+     * 慢消费者处理策略
+     */
+    public enum SlowConsumerPolicy {
+        DROP_OLDEST, // 丢弃队列中最旧的消息
+        LATEST_WINS, // 清空队列，只保留最新消息
+        DISCONNECT   // 断开该会话
+    }
+
+    @Value("${websocket.fanout.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Value("${websocket.fanout.slow-consumer-policy:DROP_OLDEST}")
+    private SlowConsumerPolicy policy;
+
+    @Value("${websocket.fanout.threads:4}")
+    private int threads;
+
+    // 发送线程池；不注册为 Spring Bean，避免影响 @Async 默认执行器的选择
+    private ExecutorService executor;
+
+    private final Map<String, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "ws-fanout-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("WebSocket推送引擎已启动: threads={}, queueCapacity={}, policy={}", threads, queueCapacity, policy);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 注册会话，channel 用于区分端点（如 traffic、alerts）
+     */
+    public void register(WebSocketSession session, String channel) {
+        outboxes.put(session.getId(), new Outbox(session, channel));
+    }
+
+    public void unregister(WebSocketSession session) {
+        Outbox outbox = outboxes.remove(session.getId());
+        if (outbox != null) {
+            synchronized (outbox) {
+                outbox.queue.clear();
+            }
+        }
+    }
+
+    /**
+     * 将消息放入会话的发送队列，立即返回
+     */
+    public void send(WebSocketSession session, WebSocketMessage<?> message) {
+        Outbox outbox = outboxes.get(session.getId());
+        if (outbox == null || !session.isOpen()) {
+            return;
+        }
+
+        boolean schedule = false;
+        boolean disconnect = false;
+        synchronized (outbox) {
+            if (outbox.queue.size() >= queueCapacity) {
+                switch (policy) {
+                    case DROP_OLDEST -> {
+                        outbox.queue.pollFirst();
+                        outbox.dropped++;
+                    }
+                    case LATEST_WINS -> {
+                        outbox.dropped += outbox.queue.size();
+                        outbox.queue.clear();
+                    }
+                    case DISCONNECT -> disconnect = true;
+                }
+            }
+            if (!disconnect) {
+                outbox.queue.addLast(new Pending(message, System.nanoTime()));
+                outbox.enqueued++;
+                if (!outbox.draining) {
+                    outbox.draining = true;
+                    schedule = true;
+                }
+            }
+        }
+
+        if (disconnect) {
+            log.warn("⚠️ 会话 {} ({}) 发送队列已满 ({}), 断开慢消费者", session.getId(), outbox.channel, queueCapacity);
+            outboxes.remove(session.getId());
+            executor.execute(() -> closeQuietly(session));
+        } else if (schedule) {
+            executor.execute(() -> drain(outbox));
+        }
+    }
+
+    /**
+     * 发送线程：依次发送队列中的消息，同一会话同时只有一个发送任务
+     */
+    private void drain(Outbox outbox) {
+        while (true) {
+            Pending next;
+            synchronized (outbox) {
+                next = outbox.queue.pollFirst();
+                if (next == null) {
+                    outbox.draining = false;
+                    return;
+                }
+            }
+            WebSocketSession session = outbox.session;
+            if (!session.isOpen()) {
+                continue;
+            }
+            try {
+                session.sendMessage(next.message);
+                long lagMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - next.enqueuedAt);
+                synchronized (outbox) {
+                    outbox.sent++;
+                    outbox.lastLagMs = lagMs;
+                    outbox.maxLagMs = Math.max(outbox.maxLagMs, lagMs);
+                }
+            } catch (IOException | IllegalStateException e) {
+                synchronized (outbox) {
+                    outbox.failed++;
+                }
+                log.error("❌ 发送失败 session {} ({})", session.getId(), outbox.channel, e);
+            }
+        }
+    }
+
+    private void closeQuietly(WebSocketSession session) {
+        try {
+            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (IOException e) {
+            log.debug("关闭会话 {} 失败", session.getId(), e);
+        }
+    }
+
+    /**
+     * 各会话的发送指标（队列深度、发送延迟、丢弃数）
+     */
+    public List<Map<String, Object>> getSessionStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Outbox outbox : outboxes.values()) {
+            Map<String, Object> item = new HashMap<>();
+            synchronized (outbox) {
+                item.put("sessionId", outbox.session.getId());
+                item.put("channel", outbox.channel);
+                item.put("queueDepth", outbox.queue.size());
+                item.put("oldestPendingMs", outbox.queue.isEmpty() ? 0
+                        : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - outbox.queue.peekFirst().enqueuedAt));
+                item.put("enqueued", outbox.enqueued);
+                item.put("sent", outbox.sent);
+                item.put("dropped", outbox.dropped);
+                item.put("failed", outbox.failed);
+                item.put("lastLagMs", outbox.lastLagMs);
+                item.put("maxLagMs", outbox.maxLagMs);
+            }
+            stats.add(item);
+        }
+        return stats;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("slowConsumerPolicy", policy.name());
+        stats.put("sessions", getSessionStats());
+        return stats;
+    }
+
+    /**
+     * 单个会话的发送队列，字段由自身的锁保护
+     */
+    private static final class Outbox {
+        final WebSocketSession session;
+        final String channel;
+        final Deque<Pending> queue = new ArrayDeque<>();
+        boolean draining;
+        long enqueued;
+        long sent;
+        long dropped;
+        long failed;
+        long lastLagMs;
+        long maxLagMs;
+
+        Outbox(WebSocketSession session, String channel) {
+            this.session = session;
+            this.channel = channel;
+        }
+    }
+
+    private static final class Pending {
+        final WebSocketMessage<?> message;
+        final long enqueuedAt;
+
+        Pending(WebSocketMessage<?> message, long enqueuedAt) {
+            this.message = message;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -12,6 +12,9 @@ public interface TrafficFlowRecordRepository extends JpaRepository<TrafficFlowRe
     
     // 根据时间范围查询历史记录，用于图表展示
     List<TrafficFlowRecord> findByCreatedAtBetweenOrderByCreatedAtAsc(LocalDateTime startTime, LocalDateTime endTime);
+
+    // 查询 [startTime, endTime) 范围内的记录，用于与内存时序缓冲拼接
+    List<TrafficFlowRecord> findByCreatedAtGreaterThanEqualAndCreatedAtLessThanOrderByCreatedAtAsc(LocalDateTime startTime, LocalDateTime endTime);
     
     // 获取最近的N条记录
     List<TrafficFlowRecord> findTop100ByOrderByCreatedAtDesc();
@@ -1,19 +1,30 @@
 package com.traffic.management.repository;
 
 import com.traffic.management.entity.Violation;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ViolationRepository extends JpaRepository<Violation, Long> {
 
+    /**
+     * 按ID查询并加行锁（SELECT ... FOR UPDATE），处理违章时读取旧状态用
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT v FROM Violation v WHERE v.id = :id")
+    Optional<Violation> findByIdForUpdate(@Param("id") Long id);
+
     /**
      * 按车牌号查询违章记录
      */
@@ -65,6 +76,62 @@ public interface ViolationRepository extends JpaRepository<Violation, Long> {
             String plateNumber,
             Pageable pageable);
 
+    // ========== 键集分页查询 (按 occurredAt, id 倒序) ==========
+
+    /**
+     * 列表第一页，type / search 为 null 时不筛选
+     */
+    @Query("SELECT v FROM Violation v " +
+           "WHERE (:type IS NULL OR v.violationType = :type) " +
+           "AND (:search IS NULL OR v.plateNumber LIKE CONCAT('%', :search, '%')) " +
+           "ORDER BY v.occurredAt DESC, v.id DESC")
+    List<Violation> findFirstPage(
+            @Param("type") Violation.ViolationType type,
+            @Param("search") String search,
+            Pageable limit);
+
+    /**
+     * 游标 (occurredAt, id) 之后的一页
+     */
+    @Query("SELECT v FROM Violation v " +
+           "WHERE (v.occurredAt < :occurredAt OR (v.occurredAt = :occurredAt AND v.id < :id)) " +
+           "AND (:type IS NULL OR v.violationType = :type) " +
+           "AND (:search IS NULL OR v.plateNumber LIKE CONCAT('%', :search, '%')) " +
+           "ORDER BY v.occurredAt DESC, v.id DESC")
+    List<Violation> findPageBefore(
+            @Param("occurredAt") LocalDateTime occurredAt,
+            @Param("id") Long id,
+            @Param("type") Violation.ViolationType type,
+            @Param("search") String search,
+            Pageable limit);
+
+    /**
+     * 在车牌索引给出的候选ID中分页查询（按 occurredAt, id 倒序）
+     */
+    @Query("SELECT v FROM Violation v " +
+           "WHERE v.id IN :ids " +
+           "AND (:type IS NULL OR v.violationType = :type) " +
+           "ORDER BY v.occurredAt DESC, v.id DESC")
+    List<Violation> findByIdsOrdered(
+            @Param("ids") Collection<Long> ids,
+            @Param("type") Violation.ViolationType type,
+            Pageable pageable);
+
+    /**
+     * 在车牌索引给出的候选ID中查询游标 (occurredAt, id) 之后的一页
+     */
+    @Query("SELECT v FROM Violation v " +
+           "WHERE v.id IN :ids " +
+           "AND (v.occurredAt < :occurredAt OR (v.occurredAt = :occurredAt AND v.id < :id)) " +
+           "AND (:type IS NULL OR v.violationType = :type) " +
+           "ORDER BY v.occurredAt DESC, v.id DESC")
+    List<Violation> findPageBeforeByIds(
+            @Param("occurredAt") LocalDateTime occurredAt,
+            @Param("id") Long id,
+            @Param("ids") Collection<Long> ids,
+            @Param("type") Violation.ViolationType type,
+            Pageable limit);
+
     // ========== 统计分析相关查询 ==========
 
     /**
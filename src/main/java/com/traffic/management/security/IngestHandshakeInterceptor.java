@@ -0,0 +1,64 @@
+package com.traffic.management.security;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * 数据摄入 WebSocket 握手认证
+ *
+ * 令牌可以放在 Authorization: Bearer 请求头或 ?token= 查询参数中，
+ * 接受配置的摄入令牌 (traffic.ingest.token) 或有效的 JWT。
+ */
+@Slf4j
+@Component
+public class IngestHandshakeInterceptor implements HandshakeInterceptor {
+
+    @Autowired
+    private JwtTokenProvider jwtTokenProvider;
+
+    @Value("${traffic.ingest.token:}")
+    private String ingestToken;
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        String token = getToken(request);
+        if (StringUtils.hasText(token) && (matchesIngestToken(token) || jwtTokenProvider.validateToken(token))) {
+            return true;
+        }
+        log.warn("数据摄入 WebSocket 认证失败: {}", request.getRemoteAddress());
+        response.setStatusCode(HttpStatus.UNAUTHORIZED);
+        return false;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+
+    private boolean matchesIngestToken(String token) {
+        return StringUtils.hasText(ingestToken) && MessageDigest.isEqual(
+                ingestToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String getToken(ServerHttpRequest request) {
+        String bearerToken = request.getHeaders().getFirst("Authorization");
+        if (StringUtils.hasText(bearerToken) && bearerToken.startsWith("Bearer ")) {
+            return bearerToken.substring(7);
+        }
+        return UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams().getFirst("token");
+    }
+}
@@ -0,0 +1,198 @@
+package com.traffic.management.service;
+
+import com.traffic.management.entity.Violation;
+import com.traffic.management.exception.BusinessException;
+import com.traffic.management.exception.ErrorCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 去重车辆数统计（Redis HyperLogLog）
+ *
+ * 每个路口每小时、每天各一个 HyperLogLog（PFADD 车牌号），分两种口径：
+ * violation 为有违章记录的车辆，detection 为 AI 检测到的全部车辆（含红绿灯校验后不构成违章的）。
+ * 统计存在 Redis 中，多个节点写入同一组键；查询任意路口集合和时间范围时，
+ * 整天部分取天键、首尾不足一天的部分取小时键，PFCOUNT 多键即为并集的去重数（标准误差约 0.81%）。
+ * 时间范围按整小时取整：开始时间向下、结束时间向上取到整点。
+ * 只统计真实车牌（见 PlateNumberValidator），违章车辆在事务提交后写入，HyperLogLog 无法撤销回滚的上报。
+ */
+@Slf4j
+@Service
+public class DistinctVehicleService {
+
+    public static final String METRIC_VIOLATION = "violation";
+    public static final String METRIC_DETECTION = "detection";
+
+    private static final String KEY_PREFIX = "violation:hll:";
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHH");
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    // 单条 PFCOUNT 的键数上限，超过时分批 PFMERGE 到临时键再计数
+    private static final int COUNT_CHUNK_SIZE = 1000;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private PlateNumberValidator plateNumberValidator;
+
+    @Value("${violation.distinct.hour-retention-days:35}")
+    private int hourRetentionDays;
+
+    @Value("${violation.distinct.day-retention-days:400}")
+    private int dayRetentionDays;
+
+    @Value("${violation.distinct.max-keys:50000}")
+    private int maxKeys;
+
+    /**
+     * 违章写入后记录违章车辆（一次管道往返）：在事务中调用时推迟到提交之后
+     */
+    public void onReported(List<Violation> violations) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    addReported(violations);
+                }
+            });
+        } else {
+            addReported(violations);
+        }
+    }
+
+    private void addReported(List<Violation> violations) {
+        Map<String, List<String>> plates = new HashMap<>();
+        for (Violation violation : violations) {
+            collect(plates, METRIC_VIOLATION, violation.getIntersectionId(), violation.getPlateNumber(),
+                    violation.getOccurredAt());
+        }
+        add(plates);
+    }
+
+    /**
+     * AI 检测到车辆后记录（在红绿灯校验之前调用）
+     */
+    public void onDetected(Long intersectionId, String plateNumber, LocalDateTime detectedAt) {
+        Map<String, List<String>> plates = new HashMap<>();
+        collect(plates, METRIC_DETECTION, intersectionId, plateNumber, detectedAt);
+        add(plates);
+    }
+
+    /**
+     * intersectionIds 中各路口在 [startTime, endTime] 内的去重车辆数（近似值）
+     */
+    public long countDistinct(String metric, Collection<Long> intersectionIds, LocalDateTime startTime,
+                              LocalDateTime endTime) {
+        if (!METRIC_VIOLATION.equals(metric) && !METRIC_DETECTION.equals(metric)) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR, "metric 只能是 violation 或 detection");
+        }
+        if (intersectionIds.isEmpty() || !startTime.isBefore(endTime)) {
+            return 0;
+        }
+
+        List<String> keys = new ArrayList<>();
+        LocalDateTime hour = startTime.truncatedTo(ChronoUnit.HOURS);
+        while (hour.isBefore(endTime)) {
+            LocalDateTime nextDay = hour.toLocalDate().plusDays(1).atStartOfDay();
+            if (hour.getHour() == 0 && !nextDay.isAfter(endTime.plusNanos(1))) {
+                // 整天：取天键
+                for (Long intersectionId : intersectionIds) {
+                    keys.add(dayKey(metric, intersectionId, hour.toLocalDate()));
+                }
+                hour = nextDay;
+            } else {
+                for (Long intersectionId : intersectionIds) {
+                    keys.add(hourKey(metric, intersectionId, hour));
+                }
+                hour = hour.plusHours(1);
+            }
+            if (keys.size() > maxKeys) {
+                throw new BusinessException(ErrorCode.PARAM_ERROR, "路口数量和时间范围过大，请缩小查询范围");
+            }
+        }
+
+        if (keys.size() <= COUNT_CHUNK_SIZE) {
+            Long count = stringRedisTemplate.opsForHyperLogLog().size(keys.toArray(new String[0]));
+            return count != null ? count : 0;
+        }
+        String union = KEY_PREFIX + "tmp:" + UUID.randomUUID();
+        try {
+            for (int from = 0; from < keys.size(); from += COUNT_CHUNK_SIZE) {
+                List<String> chunk = new ArrayList<>(keys.subList(from, Math.min(from + COUNT_CHUNK_SIZE, keys.size())));
+                if (from > 0) {
+                    chunk.add(union);
+                }
+                stringRedisTemplate.opsForHyperLogLog().union(union, chunk.toArray(new String[0]));
+            }
+            Long count = stringRedisTemplate.opsForHyperLogLog().size(union);
+            return count != null ? count : 0;
+        } finally {
+            stringRedisTemplate.delete(union);
+        }
+    }
+
+    private void collect(Map<String, List<String>> plates, String metric, Long intersectionId,
+                         String plateNumber, LocalDateTime time) {
+        // UNKNOWN、AI_n 等占位车牌不代表具体车辆
+        if (intersectionId == null || time == null || !plateNumberValidator.isReal(plateNumber)) {
+            return;
+        }
+        String plate = plateNumberValidator.normalize(plateNumber);
+        plates.computeIfAbsent(hourKey(metric, intersectionId, time), key -> new ArrayList<>()).add(plate);
+        plates.computeIfAbsent(dayKey(metric, intersectionId, time.toLocalDate()), key -> new ArrayList<>()).add(plate);
+    }
+
+    /**
+     * 管道中执行 PFADD 和 EXPIRE；统计失败不影响违章上报
+     */
+    private void add(Map<String, List<String>> plates) {
+        if (plates.isEmpty()) {
+            return;
+        }
+        Duration hourTtl = Duration.ofDays(hourRetentionDays);
+        Duration dayTtl = Duration.ofDays(dayRetentionDays);
+        try {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    for (Map.Entry<String, List<String>> entry : plates.entrySet()) {
+                        ops.opsForHyperLogLog().add(entry.getKey(), entry.getValue().toArray(new String[0]));
+                        ops.expire(entry.getKey(), entry.getKey().contains(":h:") ? hourTtl : dayTtl);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.warn("去重车辆统计写入失败: {}", e.getMessage());
+        }
+    }
+
+    private static String hourKey(String metric, Long intersectionId, LocalDateTime time) {
+        return KEY_PREFIX + metric + ":" + intersectionId + ":h:" + time.format(HOUR_FORMAT);
+    }
+
+    private static String dayKey(String metric, Long intersectionId, LocalDate day) {
+        return KEY_PREFIX + metric + ":" + intersectionId + ":d:" + day.format(DAY_FORMAT);
+    }
+}
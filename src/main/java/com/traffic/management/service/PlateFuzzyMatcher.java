@@ -0,0 +1,227 @@
+package com.traffic.management.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 车牌模糊匹配（容忍 OCR 识别错误）
+ *
+ * 对违章记录和 AI 检测结果中出现过的所有车牌建立 BK 树，距离为带权编辑距离：
+ * 易混淆字符（如 8/B、0/D）之间替换代价为 1，其他替换、插入、删除代价为 2。
+ * 字符代价本身满足三角不等式，所以带权编辑距离是度量，BK 树可以按 |d(q,节点) - d(子树边)| <= k 剪枝，
+ * 查询只访问树中很小一部分节点。对外距离以“编辑次数”为单位（内部代价 / 2），
+ * 例如 0.5 表示一次易混淆字符替换。
+ */
+@Slf4j
+@Service
+public class PlateFuzzyMatcher {
+
+    private static final int CONFUSABLE_COST = 1;
+    private static final int EDIT_COST = 2;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${violation.plate-fuzzy.enabled:true}")
+    private boolean enabled;
+
+    // 易混淆字符组，逗号分隔，同组内任意两个字符互为易混淆
+    @Value("${violation.plate-fuzzy.confusables:0DOQ,8B,5S,2Z,6G,1IL,4A}")
+    private String confusables;
+
+    // 易混淆字符对查找表（只含 ASCII 字符），避免距离计算中的装箱和哈希查找
+    private final boolean[][] confusable = new boolean[128][128];
+
+    // BK 树，由 this 锁保护
+    private Node root;
+    private int size;
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void start() {
+        for (String group : confusables.split(",")) {
+            String chars = group.trim().toUpperCase();
+            for (int i = 0; i < chars.length(); i++) {
+                for (int j = 0; j < chars.length(); j++) {
+                    char a = chars.charAt(i);
+                    char b = chars.charAt(j);
+                    if (i != j && a < 128 && b < 128) {
+                        confusable[a][b] = true;
+                    }
+                }
+            }
+        }
+        if (!enabled) {
+            return;
+        }
+        Thread loader = new Thread(this::load, "plate-fuzzy-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 启动时加载违章记录和 AI 检测结果中的全部车牌
+     */
+    private void load() {
+        long start = System.currentTimeMillis();
+        loadPlates("SELECT DISTINCT plate_number FROM violations");
+        loadPlates("SELECT DISTINCT plate_number FROM ai_detection_results");
+        ready = true;
+        log.info("🔎 车牌模糊匹配索引加载完成: {} 个车牌, 耗时 {}ms", size(), System.currentTimeMillis() - start);
+    }
+
+    private void loadPlates(String sql) {
+        try {
+            jdbcTemplate.query(sql, rs -> {
+                add(rs.getString(1));
+            });
+        } catch (Exception e) {
+            log.warn("加载车牌失败 ({}): {}", sql, e.getMessage());
+        }
+    }
+
+    /**
+     * 加入一个车牌（已存在时忽略）
+     */
+    public synchronized void add(String plateNumber) {
+        if (!enabled || plateNumber == null || plateNumber.isBlank()) {
+            return;
+        }
+        String plate = normalize(plateNumber);
+        if (root == null) {
+            root = new Node(plate);
+            size++;
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int d = cost(plate, node.plate, Integer.MAX_VALUE);
+            if (d == 0) {
+                return;
+            }
+            Node child = node.children.get(d);
+            if (child == null) {
+                node.children.put(d, new Node(plate));
+                node.maxEdge = Math.max(node.maxEdge, d);
+                size++;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * 查找与 plateNumber 距离不超过 maxDistance（编辑次数）的车牌，按距离升序，最多 limit 个
+     */
+    public synchronized List<Map<String, Object>> search(String plateNumber, double maxDistance, int limit) {
+        List<Map<String, Object>> matches = new ArrayList<>();
+        if (root == null || plateNumber == null || plateNumber.isBlank()) {
+            return matches;
+        }
+        String plate = normalize(plateNumber);
+        int threshold = (int) Math.round(maxDistance * EDIT_COST);
+
+        List<Node> stack = new ArrayList<>();
+        List<Object[]> found = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            // 距离超过 threshold + 最大子边时，本节点和所有子树都可以排除，可以提前截断
+            int d = cost(plate, node.plate, threshold + node.maxEdge);
+            if (d <= threshold) {
+                found.add(new Object[]{node.plate, d});
+            }
+            for (Map.Entry<Integer, Node> child : node.children.entrySet()) {
+                if (Math.abs(child.getKey() - d) <= threshold) {
+                    stack.add(child.getValue());
+                }
+            }
+        }
+
+        found.sort((a, b) -> Integer.compare((Integer) a[1], (Integer) b[1]));
+        for (Object[] match : found.subList(0, Math.min(limit, found.size()))) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("plateNumber", match[0]);
+            item.put("distance", (Integer) match[1] / (double) EDIT_COST);
+            matches.add(item);
+        }
+        return matches;
+    }
+
+    /**
+     * 两个车牌的距离（编辑次数），超过 maxDistance 时返回 Double.MAX_VALUE
+     */
+    public double distance(String a, String b, double maxDistance) {
+        int threshold = (int) Math.round(maxDistance * EDIT_COST);
+        int d = cost(normalize(a), normalize(b), threshold);
+        return d <= threshold ? d / (double) EDIT_COST : Double.MAX_VALUE;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 带权编辑距离（两行动态规划），某一行的最小值超过 bound 时提前返回 bound + 1
+     */
+    private int cost(String a, String b, int bound) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j * EDIT_COST;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i * EDIT_COST;
+            int rowMin = current[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + substitutionCost(ca, b.charAt(j - 1));
+                int edit = Math.min(previous[j], current[j - 1]) + EDIT_COST;
+                current[j] = Math.min(substitution, edit);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > bound) {
+                return bound + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private int substitutionCost(char a, char b) {
+        if (a == b) {
+            return 0;
+        }
+        return a < 128 && b < 128 && confusable[a][b] ? CONFUSABLE_COST : EDIT_COST;
+    }
+
+    private static String normalize(String plateNumber) {
+        return plateNumber.trim().toUpperCase();
+    }
+
+    private static final class Node {
+        final String plate;
+        final Map<Integer, Node> children = new HashMap<>(4);
+        int maxEdge;
+
+        Node(String plate) {
+            this.plate = plate;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.traffic.management.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.regex.Pattern;
+
+/**
+ * 车牌格式校验
+ *
+ * 缺少车牌时上报的 UNKNOWN、按帧内车辆序号生成的 AI_n 等占位值不能区分车辆，
+ * 违章合并、去重车辆统计等按车牌区分车辆的功能只处理符合 plate-pattern 的车牌。
+ */
+@Service
+public class PlateNumberValidator {
+
+    @Value("${violation.plate-pattern:^[\\\\u4e00-\\\\u9fa5][A-Z][A-Z0-9]{5,6}$}")
+    private String platePattern;
+
+    private Pattern plateFormat;
+
+    @PostConstruct
+    public void init() {
+        plateFormat = Pattern.compile(platePattern);
+    }
+
+    /**
+     * 去掉首尾空白并转为大写，null 返回空串
+     */
+    public String normalize(String plateNumber) {
+        return plateNumber != null ? plateNumber.trim().toUpperCase() : "";
+    }
+
+    /**
+     * 是否为真实车牌（规范化后符合 plate-pattern）
+     */
+    public boolean isReal(String plateNumber) {
+        return plateFormat.matcher(normalize(plateNumber)).matches();
+    }
+}
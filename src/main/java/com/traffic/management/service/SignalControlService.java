@@ -1,6 +1,5 @@
 package com.traffic.management.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.traffic.management.dto.traffic.ControlCommandRequest;
 import com.traffic.management.entity.SignalLog;
 import com.traffic.management.handler.TrafficDataWebSocketHandler;
@@ -34,9 +33,6 @@ public class SignalControlService {
     
     @Autowired
     private TrafficDataWebSocketHandler webSocketHandler;
-    
-    @Autowired
-    private ObjectMapper objectMapper;
 
     @Value("${ai.llmservice.base-url:https://u836978-a67f-943bbb9f.westc.gpuhub.com:8443}")
     private String aiServerUrl;
@@ -142,7 +138,7 @@ public class SignalControlService {
             data.put("changed_at", LocalDateTime.now().toString());
             msg.put("data", data);
             
-            webSocketHandler.broadcast(objectMapper.writeValueAsString(msg));
+            webSocketHandler.broadcast(msg);
         } catch(Exception e) {
             log.error("Broadcast failed", e);
         }
@@ -0,0 +1,125 @@
+package com.traffic.management.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 固定内存的滑动窗口直方图
+ *
+ * 窗口被切成若干个时间槽，每个槽是一个对数-线性分桶的直方图：
+ * 0~31 每个值一个桶（排队数、车辆数通常落在这里，结果精确），
+ * 更大的值按 2 的幂分段、每段再分 4 个子桶，相对误差不超过 12.5%。
+ * 写入时按时间定位到槽，槽过期即清零复用；查询时合并窗口内的槽计算均值、最大值和分位数。
+ * 内存只与槽数和桶数有关，与数据量无关。
+ *
+ * 非线程安全，由 TrafficStatisticsService 加锁调用。
+ */
+class SlidingWindowHistogram {
+
+    private static final int LINEAR_BUCKETS = 32;
+    private static final int LINEAR_BITS = 5;
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = LINEAR_BUCKETS + (31 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final long slotMillis;
+    private final int[][] counts;
+    private final long[] slotEpochs;
+    private final long[] sums;
+    private final int[] maxima;
+
+    SlidingWindowHistogram(long windowMillis, int slots) {
+        this.slotMillis = Math.max(1, windowMillis / slots);
+        this.counts = new int[slots][BUCKETS];
+        this.slotEpochs = new long[slots];
+        this.sums = new long[slots];
+        this.maxima = new int[slots];
+        Arrays.fill(slotEpochs, -1);
+    }
+
+    void record(int value, long nowMillis) {
+        value = Math.max(0, value);
+        long epoch = nowMillis / slotMillis;
+        int slot = (int) (epoch % slotEpochs.length);
+        if (slotEpochs[slot] != epoch) {
+            Arrays.fill(counts[slot], 0);
+            sums[slot] = 0;
+            maxima[slot] = 0;
+            slotEpochs[slot] = epoch;
+        }
+        counts[slot][bucketOf(value)]++;
+        sums[slot] += value;
+        maxima[slot] = Math.max(maxima[slot], value);
+    }
+
+    /**
+     * 窗口内的统计值: count / mean / max / p50 / p95 / p99
+     */
+    Map<String, Object> snapshot(long nowMillis) {
+        long currentEpoch = nowMillis / slotMillis;
+        int[] merged = new int[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        int max = 0;
+        for (int slot = 0; slot < slotEpochs.length; slot++) {
+            long age = currentEpoch - slotEpochs[slot];
+            if (slotEpochs[slot] < 0 || age < 0 || age >= slotEpochs.length) {
+                continue;
+            }
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                merged[bucket] += counts[slot][bucket];
+                count += counts[slot][bucket];
+            }
+            sum += sums[slot];
+            max = Math.max(max, maxima[slot]);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", count);
+        stats.put("mean", count > 0 ? (double) sum / count : 0.0);
+        stats.put("max", max);
+        stats.put("p50", percentile(merged, count, 0.50, max));
+        stats.put("p95", percentile(merged, count, 0.95, max));
+        stats.put("p99", percentile(merged, count, 0.99, max));
+        return stats;
+    }
+
+    private static int percentile(int[] merged, long count, double quantile, int max) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += merged[bucket];
+            if (seen >= rank) {
+                return Math.min(representative(bucket), max);
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(int value) {
+        if (value < LINEAR_BUCKETS) {
+            return value;
+        }
+        int exponent = 31 - Integer.numberOfLeadingZeros(value);
+        int subBucket = (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * 分桶的代表值：线性区为精确值，对数区取子桶中点
+     */
+    static int representative(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + LINEAR_BITS;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (1L << exponent) + subBucket * width;
+        return (int) Math.min(Integer.MAX_VALUE, lower + width / 2);
+    }
+}
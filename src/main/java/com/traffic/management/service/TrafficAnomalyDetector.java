@@ -0,0 +1,236 @@
+package com.traffic.management.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.traffic.management.dto.traffic.IntersectionDTO;
+import com.traffic.management.dto.traffic.LaneDTO;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import com.traffic.management.handler.AlertWebSocketHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 拥堵异常流式检测
+ *
+ * 对每个路口和每条车道的排队数维护 EWMA 均值和方差（保存在按序列下标索引的基本类型数组中），
+ * 每帧每条车道 O(1) 计算 z 分数: z = (当前值 - 均值) / 标准差。
+ * 预热帧数之后，连续 debounce-frames 帧 z 超过阈值且排队数不低于 min-queue 才触发告警（去抖），
+ * 同一序列在冷却时间内只告警一次，全局每分钟告警数有上限（限流），告警以 JSON 推送到 /ws/alerts。
+ */
+@Slf4j
+@Service
+public class TrafficAnomalyDetector {
+
+    private static final String ALERT_TYPE = "congestion_anomaly";
+    private static final int INITIAL_CAPACITY = 256;
+
+    @Autowired
+    private AlertWebSocketHandler alertWebSocketHandler;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${traffic.anomaly.enabled:true}")
+    private boolean enabled;
+
+    // EWMA 平滑系数，越小基线越稳定
+    @Value("${traffic.anomaly.alpha:0.05}")
+    private double alpha;
+
+    @Value("${traffic.anomaly.z-threshold:3.0}")
+    private double zThreshold;
+
+    @Value("${traffic.anomaly.min-queue:5}")
+    private int minQueue;
+
+    @Value("${traffic.anomaly.warmup-frames:30}")
+    private int warmupFrames;
+
+    @Value("${traffic.anomaly.debounce-frames:3}")
+    private int debounceFrames;
+
+    @Value("${traffic.anomaly.cooldown-ms:60000}")
+    private long cooldownMs;
+
+    @Value("${traffic.anomaly.max-alerts-per-minute:30}")
+    private int maxAlertsPerMinute;
+
+    // 序列下标：每个路口一个（车道名为 null）加每条车道一个，以下状态由 this 锁保护
+    private final Map<Integer, IntersectionSlots> slots = new HashMap<>();
+    private int seriesCount;
+    private double[] mean = new double[INITIAL_CAPACITY];
+    private double[] variance = new double[INITIAL_CAPACITY];
+    private int[] samples = new int[INITIAL_CAPACITY];
+    private int[] breaches = new int[INITIAL_CAPACITY];
+    private long[] lastAlertAt = new long[INITIAL_CAPACITY];
+
+    // 全局限流窗口
+    private long rateWindowStart;
+    private int rateWindowCount;
+
+    private long alertsSent;
+    private long alertsSuppressed;
+
+    /**
+     * 检测一帧数据，需要告警时推送到 /ws/alerts
+     */
+    public void accept(TrafficDataDTO dto, long nowMillis) {
+        if (!enabled || dto.getIntersections() == null) {
+            return;
+        }
+        List<Map<String, Object>> alerts = null;
+        synchronized (this) {
+            for (IntersectionDTO intersection : dto.getIntersections()) {
+                if (intersection == null || intersection.getId() == null) {
+                    continue;
+                }
+                IntersectionSlots intersectionSlots = slots.computeIfAbsent(intersection.getId(),
+                        id -> new IntersectionSlots(allocate()));
+                int queue = intersection.getQueueLength() != null ? intersection.getQueueLength() : 0;
+                alerts = check(alerts, intersectionSlots.self, intersection.getId(), null, queue, dto, nowMillis);
+
+                if (intersection.getLanes() == null) {
+                    continue;
+                }
+                for (Map.Entry<String, LaneDTO> lane : intersection.getLanes().entrySet()) {
+                    if (lane.getValue() == null) {
+                        continue;
+                    }
+                    Integer index = intersectionSlots.lanes.get(lane.getKey());
+                    if (index == null) {
+                        index = allocate();
+                        intersectionSlots.lanes.put(lane.getKey(), index);
+                    }
+                    int laneQueue = lane.getValue().getQueueLen() != null ? lane.getValue().getQueueLen() : 0;
+                    alerts = check(alerts, index, intersection.getId(), lane.getKey(), laneQueue, dto, nowMillis);
+                }
+            }
+        }
+        if (alerts != null) {
+            for (Map<String, Object> alert : alerts) {
+                send(alert);
+            }
+        }
+    }
+
+    /**
+     * 更新一个序列的 EWMA 状态，满足去抖和限流条件时把告警加入列表
+     */
+    private List<Map<String, Object>> check(List<Map<String, Object>> alerts, int i, int intersectionId,
+                                            String lane, int value, TrafficDataDTO dto, long nowMillis) {
+        double deviation = value - mean[i];
+        double z = deviation / Math.sqrt(Math.max(variance[i], 1.0));
+        double baseline = mean[i];
+
+        // 先用旧基线计算 z，再更新 EWMA 均值和方差
+        if (samples[i] == 0) {
+            mean[i] = value;
+        } else {
+            double increment = alpha * deviation;
+            mean[i] += increment;
+            variance[i] = (1 - alpha) * (variance[i] + deviation * increment);
+        }
+        samples[i]++;
+
+        if (samples[i] <= warmupFrames) {
+            return alerts;
+        }
+        if (z < zThreshold || value < minQueue) {
+            breaches[i] = 0;
+            return alerts;
+        }
+        if (++breaches[i] < debounceFrames) {
+            return alerts;
+        }
+        if (nowMillis - lastAlertAt[i] < cooldownMs) {
+            return alerts;
+        }
+        if (nowMillis - rateWindowStart >= 60_000) {
+            rateWindowStart = nowMillis;
+            rateWindowCount = 0;
+        }
+        lastAlertAt[i] = nowMillis;
+        breaches[i] = 0;
+        if (rateWindowCount >= maxAlertsPerMinute) {
+            alertsSuppressed++;
+            return alerts;
+        }
+        rateWindowCount++;
+        alertsSent++;
+
+        Map<String, Object> alert = new LinkedHashMap<>();
+        alert.put("type", ALERT_TYPE);
+        alert.put("intersection_id", intersectionId);
+        if (lane != null) {
+            alert.put("lane", lane);
+        }
+        alert.put("queue_length", value);
+        alert.put("baseline", Math.round(baseline * 10) / 10.0);
+        alert.put("z_score", Math.round(z * 100) / 100.0);
+        alert.put("step", dto.getStep());
+        alert.put("detected_at", LocalDateTime.now().toString());
+        if (alerts == null) {
+            alerts = new ArrayList<>();
+        }
+        alerts.add(alert);
+        return alerts;
+    }
+
+    private void send(Map<String, Object> alert) {
+        try {
+            alertWebSocketHandler.sendAlert(objectMapper.writeValueAsString(alert));
+            log.info("🚨 拥堵异常: 路口 {} {} 排队 {} (基线 {}, z={})", alert.get("intersection_id"),
+                    alert.getOrDefault("lane", ""), alert.get("queue_length"), alert.get("baseline"), alert.get("z_score"));
+        } catch (Exception e) {
+            log.error("❌ 推送拥堵告警失败", e);
+        }
+    }
+
+    /**
+     * 分配一个新的序列下标，数组不够时按两倍扩容
+     */
+    private int allocate() {
+        if (seriesCount == mean.length) {
+            int capacity = mean.length * 2;
+            mean = Arrays.copyOf(mean, capacity);
+            variance = Arrays.copyOf(variance, capacity);
+            samples = Arrays.copyOf(samples, capacity);
+            breaches = Arrays.copyOf(breaches, capacity);
+            lastAlertAt = Arrays.copyOf(lastAlertAt, capacity);
+        }
+        return seriesCount++;
+    }
+
+    /**
+     * 获取检测指标（序列数、已发送和被限流的告警数）
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("series", seriesCount);
+        stats.put("alertsSent", alertsSent);
+        stats.put("alertsSuppressed", alertsSuppressed);
+        return stats;
+    }
+
+    /**
+     * 一个路口的序列下标：路口本身 + 各车道
+     */
+    private static final class IntersectionSlots {
+        final int self;
+        final Map<String, Integer> lanes = new HashMap<>();
+
+        IntersectionSlots(int self) {
+            this.self = self;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.traffic.management.service;
+
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import com.traffic.management.handler.TrafficDataWebSocketHandler;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 交通数据广播合并调度
+ *
+ * 位于数据摄入和 TrafficDataWebSocketHandler 之间：每个数据流（对应一个 WebSocket 频道）只保留最新一帧，
+ * 按 traffic.ws.max-push-rate-hz 的频率推送给前端，来不及推送的旧帧直接被新帧覆盖。
+ * 摄入、Redis 和 MySQL 写入不受影响，仍按全速处理每一帧。
+ * 回放频道使用单独的 traffic.replay.max-push-rate-hz（默认不合并，每帧立即推送，用于按倍速回放和压测）。
+ */
+@Slf4j
+@Service
+public class TrafficBroadcastScheduler {
+
+    public static final String STREAM_LIVE = TrafficDataWebSocketHandler.CHANNEL_LIVE;
+    public static final String STREAM_REPLAY = TrafficDataWebSocketHandler.CHANNEL_REPLAY;
+
+    @Autowired
+    private TrafficDataWebSocketHandler webSocketHandler;
+
+    // 最大推送频率，<= 0 表示不合并，每帧立即推送
+    @Value("${traffic.ws.max-push-rate-hz:5}")
+    private double maxPushRateHz;
+
+    // 回放频道的最大推送频率，<= 0 表示不合并
+    @Value("${traffic.replay.max-push-rate-hz:0}")
+    private double replayMaxPushRateHz;
+
+    private final Map<String, StreamState> streams = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        if (maxPushRateHz <= 0 && replayMaxPushRateHz <= 0) {
+            log.info("交通数据广播合并已关闭, 每帧立即推送");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "traffic-broadcast");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (maxPushRateHz > 0) {
+            long periodMicros = (long) (1_000_000 / maxPushRateHz);
+            scheduler.scheduleAtFixedRate(() -> flush(false), periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+        }
+        if (replayMaxPushRateHz > 0) {
+            long periodMicros = (long) (1_000_000 / replayMaxPushRateHz);
+            scheduler.scheduleAtFixedRate(() -> flush(true), periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+        }
+        log.info("交通数据广播合并已启动, 最大推送频率 {} Hz, 回放 {} Hz", maxPushRateHz, replayMaxPushRateHz);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交一帧待广播的数据；同一数据流中尚未推送的旧帧会被覆盖
+     */
+    public void submit(String stream, TrafficDataDTO frame) {
+        StreamState state = streams.computeIfAbsent(stream, key -> new StreamState());
+        state.submitted.incrementAndGet();
+
+        double rateHz = STREAM_REPLAY.equals(stream) ? replayMaxPushRateHz : maxPushRateHz;
+        if (rateHz <= 0) {
+            push(stream, state, frame);
+            return;
+        }
+        if (state.pending.getAndSet(frame) != null) {
+            state.coalesced.incrementAndGet();
+        }
+    }
+
+    /**
+     * 丢弃数据流中尚未推送的帧并清零指标（回放跳转、停止时调用，避免旧位置的帧在之后被推送）
+     */
+    public void reset(String stream) {
+        StreamState state = streams.get(stream);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.pending.set(null);
+            state.submitted.set(0);
+            state.pushed.set(0);
+            state.coalesced.set(0);
+        }
+    }
+
+    /**
+     * 单个数据流的指标（提交数、推送数、被合并跳过的帧数）
+     */
+    public Map<String, Long> getStreamStats(String stream) {
+        StreamState state = streams.get(stream);
+        if (state == null) {
+            return Map.of("submitted", 0L, "pushed", 0L, "coalesced", 0L);
+        }
+        return Map.of(
+                "submitted", state.submitted.get(),
+                "pushed", state.pushed.get(),
+                "coalesced", state.coalesced.get());
+    }
+
+    private void flush(boolean replay) {
+        streams.forEach((stream, state) -> {
+            if (STREAM_REPLAY.equals(stream) != replay) {
+                return;
+            }
+            // 取帧和推送在同一把锁内，reset 之后不会再推送被丢弃的帧
+            synchronized (state) {
+                TrafficDataDTO frame = state.pending.getAndSet(null);
+                if (frame != null) {
+                    push(stream, state, frame);
+                }
+            }
+        });
+    }
+
+    private void push(String stream, StreamState state, TrafficDataDTO frame) {
+        try {
+            webSocketHandler.broadcastTrafficData(stream, frame);
+            state.pushed.incrementAndGet();
+        } catch (Exception e) {
+            log.error("❌ 广播交通数据失败 (stream: {}, step: {})", stream, frame.getStep(), e);
+        }
+    }
+
+    /**
+     * 各数据流的合并指标（提交数、推送数、被合并跳过的帧数）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxPushRateHz", maxPushRateHz);
+        stats.put("replayMaxPushRateHz", replayMaxPushRateHz);
+        Map<String, Object> streamStats = new HashMap<>();
+        streams.keySet().forEach(stream -> streamStats.put(stream, getStreamStats(stream)));
+        stats.put("streams", streamStats);
+        return stats;
+    }
+
+    private static final class StreamState {
+        final AtomicReference<TrafficDataDTO> pending = new AtomicReference<>();
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong pushed = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+    }
+}
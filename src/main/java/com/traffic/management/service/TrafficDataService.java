@@ -1,20 +1,27 @@
 package com.traffic.management.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import com.traffic.management.dto.traffic.IntersectionDTO;
 import com.traffic.management.dto.traffic.TrafficDataDTO;
 import com.traffic.management.entity.TrafficFlowRecord;
-import com.traffic.management.handler.TrafficDataWebSocketHandler;
 import com.traffic.management.repository.TrafficFlowRecordRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -33,111 +40,265 @@ public class TrafficDataService {
     private TrafficFlowRecordRepository trafficFlowRepository;
 
     @Autowired
-    private TrafficDataWebSocketHandler webSocketHandler;
+    private TrafficFlowWriteBehindService writeBehindService;
+
+    @Autowired
+    private TrafficTimeSeriesService timeSeriesService;
+
+    @Autowired
+    private TrafficBroadcastScheduler broadcastScheduler;
+
+    @Autowired
+    private TrafficWriteAheadLog writeAheadLog;
+
+    @Autowired
+    private TrafficRollupService rollupService;
+
+    @Autowired
+    private TrafficLatestSnapshotService latestSnapshotService;
+
+    @Autowired
+    private TrafficStatisticsService statisticsService;
+
+    @Autowired
+    private TrafficAnomalyDetector anomalyDetector;
 
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    @Qualifier("cborObjectMapper")
+    private CBORMapper cborObjectMapper;
+
+    // traffic:ai:latest 的存储编码: json (默认) 或 cbor
+    @Value("${traffic.redis.encoding:json}")
+    private String redisEncoding;
+
     // Redis Key 常量
     private static final String REDIS_KEY_LATEST_TRAFFIC = "traffic:ai:latest";
     private static final String REDIS_KEY_LAST_UPDATE_TIME = "traffic:ai:last_update_ts";
     private static final long REDIS_EXPIRE_HOURS = 24;
+    private static final byte[] REDIS_KEY_LATEST_TRAFFIC_BYTES = REDIS_KEY_LATEST_TRAFFIC.getBytes(StandardCharsets.UTF_8);
 
     /**
-     * 处理从 LLM 接收到的数据
+     * 处理从 LLM 接收到的数据 (HTTP 摄入，每帧一个异步任务)
      */
     @Async
     public void processIngressData(TrafficDataDTO dataDTO) {
+        processFrame(dataDTO);
+    }
+
+    /**
+     * 在调用线程上同步处理一帧数据，返回是否处理成功
+     * WebSocket 摄入在会话接收线程上依次调用，保证同一数据流内的帧按到达顺序处理
+     */
+    public boolean processFrame(TrafficDataDTO dataDTO) {
         try {
             log.info("📦 开始处理LLM交通数据 (timestamp: {}, step: {})",
                      dataDTO.getTimestamp(), dataDTO.getStep());
 
-            // 1. 广播到 WebSocket
-            Map<String, Object> wsMessage = new HashMap<>();
-            wsMessage.put("type", "traffic_update");
-            wsMessage.put("data", dataDTO);
-            String jsonMessage = objectMapper.writeValueAsString(wsMessage);
-            log.debug("🔊 调用WebSocket广播...");
-            webSocketHandler.broadcast(jsonMessage);
+            // 0. 先写入本地预写日志，MySQL 写入由 TrafficWalReplayer 从日志回放
+            LocalDateTime receivedAt = LocalDateTime.now();
+            boolean walLogged = appendToWriteAheadLog(dataDTO, receivedAt);
+
+            // 1. 提交 WebSocket 广播 (按最大推送频率合并，只推送最新一帧)
+            log.debug("🔊 提交WebSocket广播...");
+            broadcastScheduler.submit(TrafficBroadcastScheduler.STREAM_LIVE, dataDTO);
 
-            // 2. 更新 Redis (数据本身 + 更新时间戳)
+            // 2. 更新进程内最新快照和 Redis (数据本身 + 更新时间戳)
+            latestSnapshotService.update(dataDTO);
             log.debug("💾 保存到Redis...");
-            String rawJson = objectMapper.writeValueAsString(dataDTO);
-            redisTemplate.opsForValue().set(REDIS_KEY_LATEST_TRAFFIC, rawJson, REDIS_EXPIRE_HOURS, TimeUnit.HOURS);
+            byte[] payload = "cbor".equalsIgnoreCase(redisEncoding)
+                    ? cborObjectMapper.writeValueAsBytes(dataDTO)
+                    : objectMapper.writeValueAsBytes(dataDTO);
+            redisTemplate.execute((RedisCallback<Boolean>) connection -> connection.stringCommands().set(
+                    REDIS_KEY_LATEST_TRAFFIC_BYTES, payload,
+                    Expiration.from(REDIS_EXPIRE_HOURS, TimeUnit.HOURS), RedisStringCommands.SetOption.upsert()));
             redisTemplate.opsForValue().set(REDIS_KEY_LAST_UPDATE_TIME, LocalDateTime.now().toString(), REDIS_EXPIRE_HOURS, TimeUnit.HOURS);
 
-            // 3. 全量异步存入 MySQL
-            log.debug("🗄️ 保存到MySQL...");
-            saveHistoryRecord(dataDTO);
+            // 3. 写入内存时序缓冲、多分辨率汇总、拥堵统计和异常检测，并全量存入 MySQL (已写入预写日志时由回放线程落库，否则进入写后缓冲)
+            log.debug("🗄️ 提交到MySQL写入队列...");
+            saveHistoryRecord(dataDTO, receivedAt, walLogged);
 
             log.info("✅ LLM数据处理完成");
+            return true;
 
         } catch (Exception e) {
             log.error("❌ 处理LLM交通数据时出错", e);
+            return false;
         }
     }
 
-    private void saveHistoryRecord(TrafficDataDTO dto) {
+    private boolean appendToWriteAheadLog(TrafficDataDTO dto, LocalDateTime receivedAt) {
+        if (!writeAheadLog.isEnabled()) {
+            return false;
+        }
         try {
-            int totalQueue = dto.getTotalQueue() != null ? dto.getTotalQueue() :
-                    (dto.getIntersections() != null ? dto.getIntersections().stream().mapToInt(IntersectionDTO::getQueueLength).sum() : 0);
-            
-            int totalVehicles = dto.getTotalVehicles() != null ? dto.getTotalVehicles() :
-                    (dto.getIntersections() != null ? dto.getIntersections().stream().mapToInt(IntersectionDTO::getVehicleCount).sum() : 0);
-
-            Map<String, Object> snapshot = objectMapper.convertValue(dto, Map.class);
-
-            TrafficFlowRecord record = TrafficFlowRecord.builder()
-                    .simulationTimestamp(dto.getTimestamp())
-                    .step(dto.getStep())
-                    .controlMode(dto.getControlMode())
-                    .totalQueue(totalQueue)
-                    .totalVehicles(totalVehicles)
-                    .fullDataSnapshot(snapshot)
-                    .build();
-
-            trafficFlowRepository.save(record);
+            writeAheadLog.append(dto, receivedAt);
+            return true;
         } catch (Exception e) {
-            log.error("Failed to save traffic history", e);
+            // 日志写入失败时退回到直接进入写后缓冲，不丢弃这一帧
+            log.error("❌ 写入预写日志失败, 直接提交到MySQL写入队列 (step: {})", dto.getStep(), e);
+            return false;
         }
     }
 
-    public TrafficDataDTO getLatestTrafficData() {
-        String json = redisTemplate.opsForValue().get(REDIS_KEY_LATEST_TRAFFIC);
-        if (json == null) return null;
+    private void saveHistoryRecord(TrafficDataDTO dto, LocalDateTime receivedAt, boolean walLogged) {
         try {
-            TrafficDataDTO dto = objectMapper.readValue(json, TrafficDataDTO.class);
-
-            // 计算总计值（如果LLM没有提供）
-            if (dto.getTotalQueue() == null && dto.getIntersections() != null) {
-                int totalQueue = dto.getIntersections().stream()
-                        .mapToInt(IntersectionDTO::getQueueLength)
-                        .sum();
-                dto.setTotalQueue(totalQueue);
+            TrafficFlowRecord record = buildHistoryRecord(dto, receivedAt);
+            timeSeriesService.append(dto, record.getTotalQueue(), record.getTotalVehicles(), receivedAt);
+            rollupService.accept(dto, record.getTotalQueue(), record.getTotalVehicles(), receivedAt);
+            long nowMillis = System.currentTimeMillis();
+            statisticsService.accept(dto, nowMillis);
+            anomalyDetector.accept(dto, nowMillis);
+
+            if (!walLogged) {
+                writeBehindService.enqueue(record);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while queueing traffic history (step: {})", dto.getStep());
+        } catch (Exception e) {
+            log.error("Failed to save traffic history", e);
+        }
+    }
+
+    /**
+     * 将一帧数据转换为历史记录（缺少总计值时按路口累加）
+     */
+    TrafficFlowRecord buildHistoryRecord(TrafficDataDTO dto, LocalDateTime receivedAt) {
+        int totalQueue = dto.getTotalQueue() != null ? dto.getTotalQueue() :
+                (dto.getIntersections() != null ? dto.getIntersections().stream().mapToInt(IntersectionDTO::getQueueLength).sum() : 0);
+
+        int totalVehicles = dto.getTotalVehicles() != null ? dto.getTotalVehicles() :
+                (dto.getIntersections() != null ? dto.getIntersections().stream().mapToInt(IntersectionDTO::getVehicleCount).sum() : 0);
+
+        Map<String, Object> snapshot = objectMapper.convertValue(dto, Map.class);
+
+        return TrafficFlowRecord.builder()
+                .simulationTimestamp(dto.getTimestamp())
+                .step(dto.getStep())
+                .controlMode(dto.getControlMode())
+                .totalQueue(totalQueue)
+                .totalVehicles(totalVehicles)
+                .fullDataSnapshot(snapshot)
+                .createdAt(receivedAt)
+                .build();
+    }
 
-            if (dto.getTotalVehicles() == null && dto.getIntersections() != null) {
-                int totalVehicles = dto.getIntersections().stream()
-                        .mapToInt(IntersectionDTO::getVehicleCount)
-                        .sum();
-                dto.setTotalVehicles(totalVehicles);
+    public TrafficDataDTO getLatestTrafficData() {
+        TrafficLatestSnapshotService.Snapshot snapshot = getLatestSnapshot();
+        return snapshot != null ? snapshot.getData() : null;
+    }
+
+    /**
+     * 获取最新一帧的预渲染响应；进程内缓存为空时（冷启动）才读取 Redis
+     */
+    public TrafficLatestSnapshotService.Snapshot getLatestSnapshot() {
+        try {
+            TrafficLatestSnapshotService.Snapshot snapshot = latestSnapshotService.get();
+            if (snapshot == null) {
+                TrafficDataDTO dto = readLatestFromRedis();
+                if (dto == null) return null;
+                latestSnapshotService.updateIfEmpty(dto);
+                snapshot = latestSnapshotService.get();
             }
+            return snapshot;
+        } catch (Exception e) {
+            log.error("Error rendering latest traffic data", e);
+            return null;
+        }
+    }
 
-            return dto;
+    private TrafficDataDTO readLatestFromRedis() {
+        byte[] raw = redisTemplate.execute(
+                (RedisCallback<byte[]>) connection -> connection.stringCommands().get(REDIS_KEY_LATEST_TRAFFIC_BYTES));
+        if (raw == null || raw.length == 0) return null;
+        try {
+            // JSON 以 '{' 开头，否则按 CBOR 解析，切换编码配置后旧值仍可读取
+            return raw[0] == '{'
+                    ? objectMapper.readValue(raw, TrafficDataDTO.class)
+                    : cborObjectMapper.readValue(raw, TrafficDataDTO.class);
         } catch (Exception e) {
             log.error("Error parsing traffic data from Redis", e);
             return null;
         }
     }
 
+    /**
+     * 查询历史记录
+     * 时间范围足够长时返回满足点数要求的最粗粒度汇总（见 getHistoryResolution）；
+     * 否则内存时序缓冲覆盖的时间段直接从内存返回，只有更早的部分才查询 MySQL
+     */
     public List<TrafficFlowRecord> getHistory(LocalDateTime start, LocalDateTime end, int limit) {
         if (start != null && end != null) {
-            return trafficFlowRepository.findByCreatedAtBetweenOrderByCreatedAtAsc(start, end);
+            TrafficRollupService.Resolution resolution = rollupService.chooseResolution(start, end, limit);
+            if (resolution != null) {
+                return rollupService.getNetworkHistory(resolution, start, end);
+            }
+            LocalDateTime oldest = timeSeriesService.getOldestReceivedAt();
+            if (oldest == null || end.isBefore(oldest)) {
+                return trafficFlowRepository.findByCreatedAtBetweenOrderByCreatedAtAsc(start, end);
+            }
+            List<TrafficFlowRecord> recent = timeSeriesService.getRange(start, end);
+            if (!start.isBefore(oldest)) {
+                return recent;
+            }
+            // created_at 在 MySQL 中只精确到秒，按秒截断避免与内存中的帧重复
+            List<TrafficFlowRecord> records = new ArrayList<>(
+                    trafficFlowRepository.findByCreatedAtGreaterThanEqualAndCreatedAtLessThanOrderByCreatedAtAsc(
+                            start, oldest.truncatedTo(ChronoUnit.SECONDS)));
+            records.addAll(recent);
+            return records;
+        } else if (timeSeriesService.size() >= limit) {
+            return timeSeriesService.getRecent(limit);
         } else {
             return trafficFlowRepository.findTop100ByOrderByCreatedAtDesc();
         }
     }
 
+    /**
+     * getHistory 使用的数据粒度: 汇总粒度 (1m / 15m / 1h) 或 raw
+     */
+    public String getHistoryResolution(LocalDateTime start, LocalDateTime end, int limit) {
+        if (start == null || end == null) {
+            return "raw";
+        }
+        TrafficRollupService.Resolution resolution = rollupService.chooseResolution(start, end, limit);
+        return resolution != null ? resolution.getCode() : "raw";
+    }
+
+    /**
+     * 查询单个路口最近的时序数据（仅内存缓冲）
+     */
+    public List<Map<String, Object>> getIntersectionHistory(Integer intersectionId, int limit) {
+        return timeSeriesService.getIntersectionSeries(intersectionId, limit);
+    }
+
+    /**
+     * 查询单个路口一段时间内的汇总数据；范围较短时使用 1 分钟粒度
+     */
+    public List<Map<String, Object>> getIntersectionHistory(Integer intersectionId, LocalDateTime start,
+                                                            LocalDateTime end, int limit) {
+        TrafficRollupService.Resolution resolution = rollupService.chooseResolution(start, end, limit);
+        return rollupService.getIntersectionHistory(intersectionId,
+                resolution != null ? resolution : TrafficRollupService.Resolution.MINUTE, start, end);
+    }
+
+    /**
+     * 所有路口的拥堵滑动窗口统计
+     */
+    public List<Map<String, Object>> getIntersectionStatistics() {
+        return statisticsService.getAllIntersectionStats();
+    }
+
+    /**
+     * 单个路口及其车道的拥堵滑动窗口统计
+     */
+    public Map<String, Object> getIntersectionStatistics(Integer intersectionId) {
+        return statisticsService.getIntersectionStats(intersectionId);
+    }
+
     /**
      * 获取最后一次接收数据的时间（用于系统状态检查）
      */
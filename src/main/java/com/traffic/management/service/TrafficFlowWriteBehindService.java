@@ -0,0 +1,279 @@
+package com.traffic.management.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.traffic.management.entity.TrafficFlowRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.dao.NonTransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 交通流历史记录的写后缓冲（write-behind）
+ *
+ * 摄入线程只把记录放入有界队列，由独立的刷写线程按条数或时间间隔
+ * 拼成一条多行 INSERT 写入 MySQL。
+ * 队列满时摄入线程阻塞等待（背压），不会静默丢弃数据；
+ * 刷写失败的批次会保留并重试，直到 MySQL 恢复；
+ * 因数据本身被拒绝（例如字段超长）的批次改为逐条写入，仍然失败的记录丢弃并计入 poisoned。
+ */
+@Slf4j
+@Service
+public class TrafficFlowWriteBehindService {
+
+    private static final String INSERT_PREFIX = "INSERT INTO traffic_flow_records "
+            + "(simulation_timestamp, step, control_mode, total_queue, total_vehicles, full_data_snapshot, created_at) VALUES ";
+    private static final String INSERT_ROW = "(?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${traffic.persistence.queue-capacity:5000}")
+    private int queueCapacity;
+
+    @Value("${traffic.persistence.batch-size:200}")
+    private int batchSize;
+
+    @Value("${traffic.persistence.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${traffic.persistence.retry-delay-ms:2000}")
+    private long retryDelayMs;
+
+    private BlockingQueue<TrafficFlowRecord> queue;
+    private Thread flusherThread;
+    private volatile boolean running;
+
+    // 监控指标
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong persistedCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong poisonedCount = new AtomicLong();
+    private final AtomicLong backpressureCount = new AtomicLong();
+    private final AtomicLong backpressureWaitMs = new AtomicLong();
+    private volatile long lastFlushLatencyMs;
+    private volatile long maxFlushLatencyMs;
+    private volatile int lastFlushSize;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        running = true;
+        flusherThread = new Thread(this::flushLoop, "traffic-write-behind");
+        flusherThread.setDaemon(true);
+        flusherThread.start();
+        log.info("交通流写后缓冲已启动: capacity={}, batchSize={}, flushInterval={}ms",
+                queueCapacity, batchSize, flushIntervalMs);
+    }
+
+    /**
+     * 将记录放入缓冲队列
+     * 队列已满时阻塞调用线程直到有空位，以此向上游施加背压
+     */
+    public void enqueue(TrafficFlowRecord record) throws InterruptedException {
+        if (record.getCreatedAt() == null) {
+            record.setCreatedAt(LocalDateTime.now());
+        }
+        if (!queue.offer(record)) {
+            long waitStart = System.currentTimeMillis();
+            backpressureCount.incrementAndGet();
+            log.warn("⚠️ 交通流写入队列已满 ({}), MySQL 写入跟不上, 摄入线程等待中 (step: {})",
+                    queueCapacity, record.getStep());
+            queue.put(record);
+            backpressureWaitMs.addAndGet(System.currentTimeMillis() - waitStart);
+        }
+        enqueuedCount.incrementAndGet();
+    }
+
+    private void flushLoop() {
+        List<TrafficFlowRecord> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    fillBatch(batch);
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                writeOrSplit(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                // 关闭时被中断，继续把剩余数据写完
+                running = false;
+            } catch (Exception e) {
+                failedFlushCount.incrementAndGet();
+                log.error("❌ 交通流批量写入失败, {} 条记录将在 {}ms 后重试", batch.size(), retryDelayMs, e);
+                if (!running) {
+                    log.error("服务关闭中, 放弃写入 {} 条交通流记录", batch.size() + queue.size());
+                    return;
+                }
+                sleepQuietly(retryDelayMs);
+            }
+        }
+    }
+
+    /**
+     * 等待第一条记录，然后在刷写间隔内凑满一批
+     */
+    private void fillBatch(List<TrafficFlowRecord> batch) throws InterruptedException {
+        TrafficFlowRecord first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.currentTimeMillis() + flushIntervalMs;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.currentTimeMillis();
+            if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                break;
+            }
+            TrafficFlowRecord next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * 写入一批记录；批次因数据错误被拒绝时逐条写入，丢弃仍被拒绝的记录。
+     * 连接和暂时性错误照常抛出，已写入的记录从 batch 中移除，调用方重试剩余部分。
+     * TrafficWalReplayer 回放预写日志时也直接调用
+     */
+    void writeOrSplit(List<TrafficFlowRecord> batch) throws Exception {
+        try {
+            writeBatch(batch);
+            return;
+        } catch (Exception e) {
+            if (!isPoison(e)) {
+                throw e;
+            }
+            if (batch.size() == 1) {
+                dropPoisoned(batch.get(0), e);
+                return;
+            }
+            log.warn("⚠️ 交通流批量写入被拒绝 ({}), 改为逐条写入 {} 条记录", e.getMessage(), batch.size());
+        }
+        Iterator<TrafficFlowRecord> iterator = batch.iterator();
+        while (iterator.hasNext()) {
+            TrafficFlowRecord record = iterator.next();
+            try {
+                writeBatch(List.of(record));
+            } catch (Exception e) {
+                if (!isPoison(e)) {
+                    throw e;
+                }
+                dropPoisoned(record, e);
+            }
+            iterator.remove();
+        }
+    }
+
+    private void dropPoisoned(TrafficFlowRecord record, Exception e) {
+        poisonedCount.incrementAndGet();
+        log.error("❌ 交通流记录被 MySQL 拒绝, 已丢弃 (step: {}): {}", record.getStep(), e.getMessage());
+    }
+
+    /**
+     * 数据本身导致的错误，重试也不会成功；连接失败等资源类错误除外
+     */
+    private static boolean isPoison(Exception e) {
+        return e instanceof JsonProcessingException
+                || e instanceof NonTransientDataAccessException && !(e instanceof NonTransientDataAccessResourceException);
+    }
+
+    /**
+     * 以一条多行 INSERT 写入一批记录
+     */
+    void writeBatch(List<TrafficFlowRecord> batch) throws Exception {
+        long start = System.currentTimeMillis();
+
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + batch.size() * (INSERT_ROW.length() + 1));
+        sql.append(INSERT_PREFIX);
+        Object[] args = new Object[batch.size() * 7];
+        int i = 0;
+        for (TrafficFlowRecord record : batch) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(INSERT_ROW);
+            args[i++] = record.getSimulationTimestamp();
+            args[i++] = record.getStep();
+            args[i++] = record.getControlMode();
+            args[i++] = record.getTotalQueue();
+            args[i++] = record.getTotalVehicles();
+            args[i++] = record.getFullDataSnapshot() != null
+                    ? objectMapper.writeValueAsString(record.getFullDataSnapshot()) : null;
+            args[i++] = Timestamp.valueOf(record.getCreatedAt());
+        }
+        jdbcTemplate.update(sql.toString(), args);
+
+        long latency = System.currentTimeMillis() - start;
+        lastFlushLatencyMs = latency;
+        lastFlushSize = batch.size();
+        if (latency > maxFlushLatencyMs) {
+            maxFlushLatencyMs = latency;
+        }
+        flushCount.incrementAndGet();
+        persistedCount.addAndGet(batch.size());
+        log.debug("🗄️ 批量写入交通流记录 {} 条, 耗时 {}ms, 队列剩余 {}", batch.size(), latency, queue.size());
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        log.info("交通流写后缓冲关闭中, 待写入 {} 条", queue.size());
+        // 不中断刷写线程，让它在下一次轮询超时后写完剩余数据
+        running = false;
+        flusherThread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    /**
+     * 获取写后缓冲的运行指标（队列深度、刷写延迟、背压次数）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("enqueued", enqueuedCount.get());
+        stats.put("persisted", persistedCount.get());
+        stats.put("flushes", flushCount.get());
+        stats.put("failedFlushes", failedFlushCount.get());
+        stats.put("poisoned", poisonedCount.get());
+        stats.put("lastFlushSize", lastFlushSize);
+        stats.put("lastFlushLatencyMs", lastFlushLatencyMs);
+        stats.put("maxFlushLatencyMs", maxFlushLatencyMs);
+        stats.put("backpressureEvents", backpressureCount.get());
+        stats.put("backpressureWaitMs", backpressureWaitMs.get());
+        return stats;
+    }
+}
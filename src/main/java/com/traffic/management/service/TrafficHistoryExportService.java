@@ -0,0 +1,181 @@
+package com.traffic.management.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * 交通流历史记录流式导出
+ *
+ * 使用只进只读的 JDBC 游标逐行读取 traffic_flow_records，读一行写一行到响应流，
+ * 内存占用与时间范围无关。MySQL 驱动只有在 fetchSize 为 Integer.MIN_VALUE 时才逐行流式返回，
+ * 否则会把整个结果集读入内存。
+ * 只能导出仍保留的原始记录，开启 traffic.rollup.raw-retention-hours 后更早的时间段没有数据。
+ */
+@Slf4j
+@Service
+public class TrafficHistoryExportService {
+
+    private static final String SELECT_COLUMNS = "SELECT id, simulation_timestamp, step, control_mode, "
+            + "total_queue, total_vehicles, created_at";
+    private static final String SELECT_FROM = " FROM traffic_flow_records "
+            + "WHERE created_at >= ? AND created_at <= ? ORDER BY created_at";
+    private static final String CSV_HEADER = "id,simulation_timestamp,step,control_mode,total_queue,total_vehicles,created_at";
+
+    /**
+     * 导出格式
+     */
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * 将 [start, end] 范围内的记录写入输出流，返回导出的行数
+     *
+     * @param includeSnapshot 是否包含 full_data_snapshot（体积大，默认不导出）
+     */
+    public long export(LocalDateTime start, LocalDateTime end, Format format, boolean includeSnapshot,
+                       OutputStream out) throws IOException {
+        String sql = SELECT_COLUMNS + (includeSnapshot ? ", full_data_snapshot" : "") + SELECT_FROM;
+        long[] rows = new long[1];
+        long startMs = System.currentTimeMillis();
+
+        if (format == Format.CSV) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write(includeSnapshot ? CSV_HEADER + ",full_data_snapshot\n" : CSV_HEADER + "\n");
+            stream(sql, start, end, rs -> {
+                try {
+                    writeCsvRow(writer, rs, includeSnapshot);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            });
+            writer.flush();
+        } else {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(new SerializedString("\n"));
+            stream(sql, start, end, rs -> {
+                try {
+                    writeJsonRow(generator, rs, includeSnapshot);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            });
+            if (rows[0] > 0) {
+                generator.writeRaw('\n');
+            }
+            generator.flush();
+        }
+
+        log.info("📤 导出交通流记录 {} 条 ({} ~ {}, format: {}), 耗时 {}ms",
+                rows[0], start, end, format, System.currentTimeMillis() - startMs);
+        return rows[0];
+    }
+
+    private void stream(String sql, LocalDateTime start, LocalDateTime end, RowCallbackHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(Integer.MIN_VALUE);
+            statement.setTimestamp(1, Timestamp.valueOf(start));
+            statement.setTimestamp(2, Timestamp.valueOf(end));
+            return statement;
+        }, handler);
+    }
+
+    private void writeJsonRow(JsonGenerator generator, ResultSet rs, boolean includeSnapshot)
+            throws IOException, SQLException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", rs.getLong("id"));
+        generator.writeNumberField("simulation_timestamp", rs.getDouble("simulation_timestamp"));
+        writeIntField(generator, "step", rs, "step");
+        generator.writeStringField("control_mode", rs.getString("control_mode"));
+        writeIntField(generator, "total_queue", rs, "total_queue");
+        writeIntField(generator, "total_vehicles", rs, "total_vehicles");
+        generator.writeStringField("created_at", rs.getTimestamp("created_at").toLocalDateTime().toString());
+        if (includeSnapshot) {
+            // 快照在库中已是 JSON 文本，原样写出，不解析
+            String snapshot = rs.getString("full_data_snapshot");
+            generator.writeFieldName("full_data_snapshot");
+            if (snapshot != null) {
+                generator.writeRawValue(snapshot);
+            } else {
+                generator.writeNull();
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeIntField(JsonGenerator generator, String name, ResultSet rs, String column)
+            throws IOException, SQLException {
+        int value = rs.getInt(column);
+        if (rs.wasNull()) {
+            generator.writeNullField(name);
+        } else {
+            generator.writeNumberField(name, value);
+        }
+    }
+
+    private static void writeCsvRow(Writer writer, ResultSet rs, boolean includeSnapshot)
+            throws IOException, SQLException {
+        writer.write(Long.toString(rs.getLong("id")));
+        writer.write(',');
+        writer.write(Double.toString(rs.getDouble("simulation_timestamp")));
+        writer.write(',');
+        writer.write(nullToEmpty(rs.getString("step")));
+        writer.write(',');
+        writer.write(csvEscape(rs.getString("control_mode")));
+        writer.write(',');
+        writer.write(nullToEmpty(rs.getString("total_queue")));
+        writer.write(',');
+        writer.write(nullToEmpty(rs.getString("total_vehicles")));
+        writer.write(',');
+        writer.write(rs.getTimestamp("created_at").toLocalDateTime().toString());
+        if (includeSnapshot) {
+            writer.write(',');
+            writer.write(csvEscape(rs.getString("full_data_snapshot")));
+        }
+        writer.write('\n');
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String csvEscape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,126 @@
+package com.traffic.management.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.traffic.management.dto.traffic.IntersectionDTO;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 最新交通快照的进程内缓存
+ *
+ * 摄入时只替换引用；第一次查询时补全总计值，渲染出 /api/traffic/latest 的完整响应字节和 ETag，
+ * 之后同一帧的查询直接返回这些字节，不再读 Redis、反序列化或重新序列化。
+ * 缓存为空时（如刚启动）由 TrafficDataService 从 Redis 读取并回填。
+ */
+@Service
+public class TrafficLatestSnapshotService {
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final AtomicReference<TrafficDataDTO> latest = new AtomicReference<>();
+
+    private volatile Snapshot rendered;
+
+    /**
+     * 摄入时调用，记录最新一帧
+     */
+    public void update(TrafficDataDTO dto) {
+        latest.set(dto);
+    }
+
+    /**
+     * 冷启动时用 Redis 中的数据回填；已有更新的帧时不覆盖
+     */
+    public void updateIfEmpty(TrafficDataDTO dto) {
+        latest.compareAndSet(null, dto);
+    }
+
+    /**
+     * 获取最新一帧的渲染结果，尚无数据时返回 null
+     */
+    public Snapshot get() throws JsonProcessingException {
+        TrafficDataDTO current = latest.get();
+        if (current == null) {
+            return null;
+        }
+        Snapshot snapshot = rendered;
+        if (snapshot != null && snapshot.source == current) {
+            return snapshot;
+        }
+        synchronized (this) {
+            snapshot = rendered;
+            if (snapshot == null || snapshot.source != current) {
+                snapshot = render(current);
+                rendered = snapshot;
+            }
+            return snapshot;
+        }
+    }
+
+    private Snapshot render(TrafficDataDTO source) throws JsonProcessingException {
+        TrafficDataDTO data = withTotals(source);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("code", 200);
+        response.put("message", "success");
+        response.put("data", data);
+        byte[] body = objectMapper.writeValueAsBytes(response);
+        String etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+        return new Snapshot(data, body, etag, source);
+    }
+
+    /**
+     * 复制一份并补全总计值（如果LLM没有提供），不修改摄入线程仍在使用的原对象
+     */
+    private static TrafficDataDTO withTotals(TrafficDataDTO source) {
+        if (source.getIntersections() == null
+                || (source.getTotalQueue() != null && source.getTotalVehicles() != null)) {
+            return source;
+        }
+        TrafficDataDTO data = new TrafficDataDTO();
+        data.setType(source.getType());
+        data.setTimestamp(source.getTimestamp());
+        data.setStep(source.getStep());
+        data.setRoadnet(source.getRoadnet());
+        data.setTrafficflow(source.getTrafficflow());
+        data.setControlMode(source.getControlMode());
+        data.setTotalIntersections(source.getTotalIntersections());
+        data.setIntersections(source.getIntersections());
+
+        int totalQueue = 0;
+        int totalVehicles = 0;
+        for (IntersectionDTO intersection : source.getIntersections()) {
+            if (intersection == null) {
+                continue;
+            }
+            totalQueue += intersection.getQueueLength() != null ? intersection.getQueueLength() : 0;
+            totalVehicles += intersection.getVehicleCount() != null ? intersection.getVehicleCount() : 0;
+        }
+        data.setTotalQueue(source.getTotalQueue() != null ? source.getTotalQueue() : totalQueue);
+        data.setTotalVehicles(source.getTotalVehicles() != null ? source.getTotalVehicles() : totalVehicles);
+        return data;
+    }
+
+    /**
+     * 一帧的渲染结果：补全总计值的数据、完整响应字节、ETag
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Snapshot {
+        private final TrafficDataDTO data;
+        private final byte[] body;
+        private final String etag;
+        @Getter(lombok.AccessLevel.NONE)
+        private final TrafficDataDTO source;
+    }
+}
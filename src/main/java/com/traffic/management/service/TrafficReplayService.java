@@ -0,0 +1,314 @@
+package com.traffic.management.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import com.traffic.management.handler.TrafficDataWebSocketHandler;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 历史交通数据回放
+ *
+ * 读取线程按 (created_at, id) 键集分页从 traffic_flow_records 中分批读取并解析快照，
+ * 放入有界预取队列；播放线程按记录时间间隔除以倍速控制节奏，
+ * 通过 TrafficBroadcastScheduler 推送到 /ws/traffic 的 replay 频道（?channel=replay），
+ * 与实时数据走同一条广播路径，但使用单独的推送频率（traffic.replay.max-push-rate-hz，默认每帧都推送）。
+ * 倍速 <= 0 表示不限速，尽快推送。
+ * 同一时间只有一个回放任务；跳转 (seek) 会从新位置重新开始读取。
+ * 回放读取原始记录，开启 traffic.rollup.raw-retention-hours 后只能回放保留时长内的数据。
+ */
+@Slf4j
+@Service
+public class TrafficReplayService {
+
+    private static final String SELECT_PAGE = "SELECT id, created_at, full_data_snapshot FROM traffic_flow_records "
+            + "WHERE (created_at > ? OR (created_at = ? AND id > ?)) AND created_at <= ? "
+            + "ORDER BY created_at, id LIMIT ?";
+
+    public enum State {
+        IDLE, PLAYING, PAUSED, FINISHED
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private TrafficBroadcastScheduler broadcastScheduler;
+
+    @Autowired
+    private TrafficDataWebSocketHandler webSocketHandler;
+
+    @Value("${traffic.replay.prefetch:2000}")
+    private int prefetch;
+
+    @Value("${traffic.replay.page-size:500}")
+    private int pageSize;
+
+    // 当前回放任务，由 this 锁保护
+    private Session session;
+
+    @PreDestroy
+    public void shutdown() {
+        stop();
+    }
+
+    /**
+     * 开始回放 [start, end] 范围内的记录，已有回放任务会被停止
+     */
+    public synchronized Map<String, Object> start(LocalDateTime start, LocalDateTime end, double speed) {
+        if (session != null) {
+            session.stop();
+        }
+        broadcastScheduler.reset(TrafficBroadcastScheduler.STREAM_REPLAY);
+        webSocketHandler.resetChannel(TrafficDataWebSocketHandler.CHANNEL_REPLAY);
+        session = new Session(start, end, speed, false);
+        session.start();
+        log.info("▶️ 开始回放交通数据 {} ~ {} (speed: {})", start, end, speed > 0 ? speed + "x" : "max");
+        return getStatus();
+    }
+
+    public synchronized Map<String, Object> pause() {
+        if (session != null) {
+            session.paused = true;
+        }
+        return getStatus();
+    }
+
+    public synchronized Map<String, Object> resume() {
+        if (session != null && session.paused) {
+            session.paused = false;
+            LockSupport.unpark(session.player);
+        }
+        return getStatus();
+    }
+
+    /**
+     * 跳转到指定时间，保留原有的结束时间、倍速和暂停状态
+     */
+    public synchronized Map<String, Object> seek(LocalDateTime position) {
+        if (session == null) {
+            throw new IllegalStateException("当前没有回放任务");
+        }
+        Session previous = session;
+        previous.stop();
+        // 丢弃合并器中跳转前的帧，否则它会在重置后作为新的关键帧推送
+        broadcastScheduler.reset(TrafficBroadcastScheduler.STREAM_REPLAY);
+        webSocketHandler.resetChannel(TrafficDataWebSocketHandler.CHANNEL_REPLAY);
+        session = new Session(position, previous.end, previous.speed, previous.paused);
+        session.start();
+        log.info("⏩ 回放跳转到 {}", position);
+        return getStatus();
+    }
+
+    public synchronized Map<String, Object> stop() {
+        if (session != null) {
+            session.stop();
+            session = null;
+            broadcastScheduler.reset(TrafficBroadcastScheduler.STREAM_REPLAY);
+            log.info("⏹️ 回放已停止");
+        }
+        return getStatus();
+    }
+
+    /**
+     * 回放状态（当前位置、提交/实际推送/被合并的帧数、预取队列深度、实际推送帧率）
+     */
+    public synchronized Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        if (session == null) {
+            status.put("state", State.IDLE);
+            return status;
+        }
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - session.startedAt));
+        status.put("state", session.finished ? State.FINISHED : session.paused ? State.PAUSED : State.PLAYING);
+        status.put("start", session.start);
+        status.put("end", session.end);
+        status.put("speed", session.speed);
+        status.put("position", session.position);
+        Map<String, Long> broadcast = broadcastScheduler.getStreamStats(TrafficBroadcastScheduler.STREAM_REPLAY);
+        long framesPushed = broadcast.get("pushed");
+        status.put("framesRead", session.framesRead);
+        status.put("framesPlayed", session.framesPlayed);
+        status.put("framesPushed", framesPushed);
+        status.put("framesCoalesced", broadcast.get("coalesced"));
+        status.put("framesSkipped", session.framesSkipped);
+        status.put("queueDepth", session.queue.size());
+        // 按客户端实际收到的帧计算
+        status.put("fps", framesPushed * 1000 / elapsedMs);
+        return status;
+    }
+
+    /**
+     * 一次回放任务：一个读取线程 + 一个播放线程
+     */
+    private final class Session {
+        final LocalDateTime start;
+        final LocalDateTime end;
+        final double speed;
+        final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(prefetch);
+        final long startedAt = System.nanoTime();
+        final Thread reader;
+        final Thread player;
+        volatile boolean running = true;
+        volatile boolean paused;
+        volatile boolean readerDone;
+        volatile boolean finished;
+        volatile LocalDateTime position;
+        volatile long framesRead;
+        volatile long framesPlayed;
+        volatile long framesSkipped;
+
+        Session(LocalDateTime start, LocalDateTime end, double speed, boolean paused) {
+            this.start = start;
+            this.end = end;
+            this.speed = speed;
+            this.paused = paused;
+            this.reader = new Thread(this::readLoop, "traffic-replay-reader");
+            this.player = new Thread(this::playLoop, "traffic-replay-player");
+            reader.setDaemon(true);
+            player.setDaemon(true);
+        }
+
+        void start() {
+            reader.start();
+            player.start();
+        }
+
+        void stop() {
+            running = false;
+            reader.interrupt();
+            player.interrupt();
+            // 等播放线程退出，之后不会再有本任务的帧提交到广播
+            try {
+                player.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 按 (created_at, id) 分页读取，不持有长时间的数据库游标，跳转和停止都能立即生效
+         */
+        private void readLoop() {
+            // 第一页: created_at = start 且 id > 0，即包含起始时间本身
+            LocalDateTime lastCreatedAt = start;
+            long lastId = 0;
+            try {
+                while (running) {
+                    List<Frame> page = jdbcTemplate.query(SELECT_PAGE, (rs, rowNum) -> new Frame(
+                                    rs.getLong("id"),
+                                    rs.getTimestamp("created_at").toLocalDateTime(),
+                                    parse(rs.getLong("id"), rs.getString("full_data_snapshot"))),
+                            Timestamp.valueOf(lastCreatedAt), Timestamp.valueOf(lastCreatedAt), lastId,
+                            Timestamp.valueOf(end), pageSize);
+                    for (Frame frame : page) {
+                        queue.put(frame);
+                        framesRead++;
+                    }
+                    if (page.size() < pageSize) {
+                        break;
+                    }
+                    Frame last = page.get(page.size() - 1);
+                    lastCreatedAt = last.createdAt;
+                    lastId = last.id;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("❌ 回放读取失败", e);
+            } finally {
+                readerDone = true;
+            }
+        }
+
+        /**
+         * 快照在读取线程上解析，播放线程只负责控制节奏和推送
+         */
+        private TrafficDataDTO parse(long id, String snapshot) {
+            if (snapshot == null) {
+                return null;
+            }
+            try {
+                return objectMapper.readValue(snapshot, TrafficDataDTO.class);
+            } catch (Exception e) {
+                log.warn("回放记录 {} 的快照无法解析, 跳过", id);
+                return null;
+            }
+        }
+
+        private void playLoop() {
+            long anchorNanos = 0;
+            LocalDateTime anchorTime = null;
+            try {
+                while (running) {
+                    if (paused) {
+                        LockSupport.park(this);
+                        anchorTime = null;
+                        continue;
+                    }
+                    Frame frame = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (frame == null) {
+                        if (readerDone && queue.isEmpty()) {
+                            break;
+                        }
+                        continue;
+                    }
+
+                    if (speed > 0) {
+                        // 以第一帧（或恢复后的第一帧）为基准，按记录时间差 / 倍速计算推送时刻
+                        if (anchorTime == null) {
+                            anchorTime = frame.createdAt;
+                            anchorNanos = System.nanoTime();
+                        }
+                        long offsetNanos = (long) (Duration.between(anchorTime, frame.createdAt).toNanos() / speed);
+                        long waitNanos = anchorNanos + offsetNanos - System.nanoTime();
+                        if (waitNanos > 0) {
+                            TimeUnit.NANOSECONDS.sleep(waitNanos);
+                        }
+                    }
+
+                    position = frame.createdAt;
+                    if (frame.data == null) {
+                        framesSkipped++;
+                        continue;
+                    }
+                    broadcastScheduler.submit(TrafficBroadcastScheduler.STREAM_REPLAY, frame.data);
+                    framesPlayed++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finished = running;
+                if (finished) {
+                    log.info("✅ 回放完成: 推送 {} 帧, 跳过 {} 帧", framesPlayed, framesSkipped);
+                }
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static final class Frame {
+        final long id;
+        final LocalDateTime createdAt;
+        final TrafficDataDTO data;
+    }
+}
@@ -0,0 +1,423 @@
+package com.traffic.management.service;
+
+import com.traffic.management.dto.traffic.IntersectionDTO;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import com.traffic.management.entity.TrafficFlowRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 交通流多分辨率汇总
+ *
+ * 每帧到达时把全路网和各路口的排队数、车辆数累加到 1 分钟 / 15 分钟 / 1 小时分桶中，
+ * 由独立线程定期以增量方式 upsert 到 traffic_flow_rollups，写入失败的增量保留到下次合并重试。
+ * 启动时后台线程从 traffic_flow_records 回填汇总表中还没有的更早时间段（按天从新到旧，每天一个事务），
+ * 回填完成前查询使用原始记录，也不删除原始记录。
+ * 回填完成后按 traffic.rollup.raw-retention-hours 分批删除过期的原始记录（默认不删除）；
+ * 开启后历史导出和回放只能覆盖保留时长内的数据，更早的时间段只能查询汇总。
+ */
+@Slf4j
+@Service
+public class TrafficRollupService {
+
+    // 全路网汇总使用的路口ID
+    public static final int NETWORK_ID = -1;
+
+    private static final String UPSERT_PREFIX = "INSERT INTO traffic_flow_rollups "
+            + "(resolution, intersection_id, bucket_start, sample_count, queue_sum, queue_max, vehicle_sum, vehicle_max) VALUES ";
+    private static final String UPSERT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE "
+            + "sample_count = sample_count + VALUES(sample_count), "
+            + "queue_sum = queue_sum + VALUES(queue_sum), queue_max = GREATEST(queue_max, VALUES(queue_max)), "
+            + "vehicle_sum = vehicle_sum + VALUES(vehicle_sum), vehicle_max = GREATEST(vehicle_max, VALUES(vehicle_max))";
+    private static final int UPSERT_BATCH_SIZE = 500;
+    private static final int RETENTION_DELETE_BATCH_SIZE = 5000;
+    // 回填用的分桶起始时间：与 Resolution.bucketStart 相同，按当天秒数向下取整
+    private static final String BACKFILL_BUCKET = "DATE_SUB(created_at, INTERVAL TIME_TO_SEC(created_at) % ? SECOND)";
+    private static final String BACKFILL_NETWORK = UPSERT_PREFIX.replace(" VALUES ", " ")
+            + "SELECT * FROM (SELECT ? AS res, " + NETWORK_ID + " AS iid, " + BACKFILL_BUCKET + " AS bucket, "
+            + "COUNT(*) AS n, SUM(COALESCE(total_queue, 0)) AS qs, MAX(COALESCE(total_queue, 0)) AS qm, "
+            + "SUM(COALESCE(total_vehicles, 0)) AS vs, MAX(COALESCE(total_vehicles, 0)) AS vm "
+            + "FROM traffic_flow_records WHERE created_at >= ? AND created_at < ? GROUP BY bucket) t" + UPSERT_SUFFIX;
+    private static final String BACKFILL_INTERSECTIONS = UPSERT_PREFIX.replace(" VALUES ", " ")
+            + "SELECT * FROM (SELECT ? AS res, i.id AS iid, " + BACKFILL_BUCKET + " AS bucket, "
+            + "COUNT(*) AS n, SUM(COALESCE(i.queue_length, 0)) AS qs, MAX(COALESCE(i.queue_length, 0)) AS qm, "
+            + "SUM(COALESCE(i.vehicle_count, 0)) AS vs, MAX(COALESCE(i.vehicle_count, 0)) AS vm "
+            + "FROM traffic_flow_records, JSON_TABLE(full_data_snapshot, '$.intersections[*]' COLUMNS ("
+            + "id INT PATH '$.id', queue_length INT PATH '$.queue_length', vehicle_count INT PATH '$.vehicle_count')) i "
+            + "WHERE created_at >= ? AND created_at < ? AND i.id IS NOT NULL GROUP BY i.id, bucket) t" + UPSERT_SUFFIX;
+
+    /**
+     * 汇总粒度，从细到粗排列
+     */
+    @Getter
+    @AllArgsConstructor
+    public enum Resolution {
+        MINUTE("1m", 60),
+        QUARTER_HOUR("15m", 900),
+        HOUR("1h", 3600);
+
+        private final String code;
+        private final int seconds;
+
+        LocalDateTime bucketStart(LocalDateTime time) {
+            LocalDateTime day = time.truncatedTo(ChronoUnit.DAYS);
+            long secondOfDay = Duration.between(day, time).getSeconds();
+            return day.plusSeconds(secondOfDay - secondOfDay % seconds);
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${traffic.rollup.flush-interval-ms:10000}")
+    private long flushIntervalMs;
+
+    // 原始记录保留时长，<= 0 表示不删除
+    @Value("${traffic.rollup.raw-retention-hours:0}")
+    private long rawRetentionHours;
+
+    @Value("${traffic.rollup.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+
+    // 汇总表已覆盖全部原始记录，可以用于查询，原始记录可以清理
+    private volatile boolean backfilled;
+
+    // 尚未写入数据库的增量，由 this 锁保护
+    private Map<BucketKey, Accumulator> pending = new HashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicLong flushedBuckets = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong expiredRawRows = new AtomicLong();
+    private final AtomicLong backfilledDays = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        // 在接收第一帧之前取边界：此后的帧由 accept 累加，此前的记录由回填补上
+        LocalDateTime startedAt = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        if (backfillOnStartup) {
+            Thread backfill = new Thread(() -> backfill(startedAt), "traffic-rollup-backfill");
+            backfill.setDaemon(true);
+            backfill.start();
+        } else {
+            backfilled = true;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "traffic-rollup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (rawRetentionHours > 0) {
+            scheduler.scheduleWithFixedDelay(this::expireRawRecords, 1, 60, TimeUnit.MINUTES);
+        }
+        log.info("交通流汇总已启动: flushInterval={}ms, rawRetention={}h", flushIntervalMs, rawRetentionHours);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        flush();
+    }
+
+    /**
+     * 把一帧数据累加到各粒度的分桶中
+     */
+    public void accept(TrafficDataDTO dto, int totalQueue, int totalVehicles, LocalDateTime receivedAt) {
+        synchronized (this) {
+            for (Resolution resolution : Resolution.values()) {
+                LocalDateTime bucketStart = resolution.bucketStart(receivedAt);
+                add(resolution, NETWORK_ID, bucketStart, totalQueue, totalVehicles);
+                if (dto.getIntersections() == null) {
+                    continue;
+                }
+                for (IntersectionDTO intersection : dto.getIntersections()) {
+                    if (intersection == null || intersection.getId() == null) {
+                        continue;
+                    }
+                    add(resolution, intersection.getId(), bucketStart,
+                            intersection.getQueueLength() != null ? intersection.getQueueLength() : 0,
+                            intersection.getVehicleCount() != null ? intersection.getVehicleCount() : 0);
+                }
+            }
+        }
+    }
+
+    private void add(Resolution resolution, int intersectionId, LocalDateTime bucketStart, int queue, int vehicles) {
+        pending.computeIfAbsent(new BucketKey(resolution, intersectionId, bucketStart), key -> new Accumulator())
+                .add(queue, vehicles);
+    }
+
+    /**
+     * 从原始记录回填汇总表尚未覆盖的时间段：汇总表中最早的分桶（或本次启动时间）之前的全部记录。
+     * 从新到旧每天一个事务，中途失败时已完成的天保留，下次启动从汇总表中最早的分桶继续
+     */
+    private void backfill(LocalDateTime startedAt) {
+        long begin = System.currentTimeMillis();
+        try {
+            Map<String, Object> bounds = jdbcTemplate.queryForMap(
+                    "SELECT (SELECT MIN(created_at) FROM traffic_flow_records) AS first, "
+                            + "(SELECT MIN(bucket_start) FROM traffic_flow_rollups WHERE resolution = ? AND intersection_id = ?) AS rolled",
+                    Resolution.MINUTE.getCode(), NETWORK_ID);
+            if (bounds.get("first") == null) {
+                backfilled = true;
+                return;
+            }
+            LocalDateTime first = toLocalDateTime(bounds.get("first"));
+            LocalDateTime to = bounds.get("rolled") != null
+                    ? min(toLocalDateTime(bounds.get("rolled")), startedAt) : startedAt;
+            TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+            while (first.isBefore(to)) {
+                LocalDateTime from = max(first, to.minusNanos(1).truncatedTo(ChronoUnit.DAYS));
+                Timestamp fromTs = Timestamp.valueOf(from);
+                Timestamp toTs = Timestamp.valueOf(to);
+                transaction.executeWithoutResult(status -> {
+                    for (Resolution resolution : Resolution.values()) {
+                        jdbcTemplate.update(BACKFILL_NETWORK, resolution.getCode(), resolution.getSeconds(), fromTs, toTs);
+                        jdbcTemplate.update(BACKFILL_INTERSECTIONS, resolution.getCode(), resolution.getSeconds(), fromTs, toTs);
+                    }
+                });
+                backfilledDays.incrementAndGet();
+                to = from;
+            }
+            backfilled = true;
+            log.info("📊 交通流汇总回填完成: {} 天, 耗时 {}ms", backfilledDays.get(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("❌ 交通流汇总回填失败, 查询继续使用原始记录, 原始记录不会被清理", e);
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        return value instanceof Timestamp ? ((Timestamp) value).toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static LocalDateTime max(LocalDateTime a, LocalDateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    /**
+     * 选择满足时间范围和点数要求的最粗粒度；返回 null 表示应使用原始记录
+     * 原始记录已过期的时间段只能走汇总表，此时至少使用 1 分钟粒度；回填完成前总是使用原始记录
+     */
+    public Resolution chooseResolution(LocalDateTime start, LocalDateTime end, int points) {
+        if (!backfilled) {
+            return null;
+        }
+        long rangeSeconds = Duration.between(start, end).getSeconds();
+        Resolution[] resolutions = Resolution.values();
+        for (int i = resolutions.length - 1; i >= 0; i--) {
+            if (rangeSeconds / resolutions[i].getSeconds() >= points) {
+                return resolutions[i];
+            }
+        }
+        boolean rawExpired = rawRetentionHours > 0
+                && start.isBefore(LocalDateTime.now().minusHours(rawRetentionHours));
+        return rawExpired ? Resolution.MINUTE : null;
+    }
+
+    /**
+     * 查询全路网汇总，以 TrafficFlowRecord 形式返回（每个分桶一条，数值为桶内平均值）
+     */
+    public List<TrafficFlowRecord> getNetworkHistory(Resolution resolution, LocalDateTime start, LocalDateTime end) {
+        return jdbcTemplate.query(
+                "SELECT bucket_start, sample_count, queue_sum, vehicle_sum FROM traffic_flow_rollups "
+                        + "WHERE resolution = ? AND intersection_id = ? AND bucket_start >= ? AND bucket_start <= ? "
+                        + "ORDER BY bucket_start",
+                (rs, rowNum) -> {
+                    int samples = Math.max(1, rs.getInt("sample_count"));
+                    return TrafficFlowRecord.builder()
+                            .totalQueue((int) Math.round((double) rs.getLong("queue_sum") / samples))
+                            .totalVehicles((int) Math.round((double) rs.getLong("vehicle_sum") / samples))
+                            .createdAt(rs.getTimestamp("bucket_start").toLocalDateTime())
+                            .build();
+                },
+                resolution.getCode(), NETWORK_ID, Timestamp.valueOf(resolution.bucketStart(start)), Timestamp.valueOf(end));
+    }
+
+    /**
+     * 查询单个路口的汇总
+     */
+    public List<Map<String, Object>> getIntersectionHistory(int intersectionId, Resolution resolution,
+                                                            LocalDateTime start, LocalDateTime end) {
+        return jdbcTemplate.query(
+                "SELECT bucket_start, sample_count, queue_sum, queue_max, vehicle_sum, vehicle_max FROM traffic_flow_rollups "
+                        + "WHERE resolution = ? AND intersection_id = ? AND bucket_start >= ? AND bucket_start <= ? "
+                        + "ORDER BY bucket_start",
+                (rs, rowNum) -> {
+                    int samples = Math.max(1, rs.getInt("sample_count"));
+                    Map<String, Object> point = new LinkedHashMap<>();
+                    point.put("bucket_start", rs.getTimestamp("bucket_start").toLocalDateTime());
+                    point.put("samples", rs.getInt("sample_count"));
+                    point.put("queue_length", (double) rs.getLong("queue_sum") / samples);
+                    point.put("queue_max", rs.getInt("queue_max"));
+                    point.put("vehicle_count", (double) rs.getLong("vehicle_sum") / samples);
+                    point.put("vehicle_max", rs.getInt("vehicle_max"));
+                    return point;
+                },
+                resolution.getCode(), intersectionId, Timestamp.valueOf(resolution.bucketStart(start)), Timestamp.valueOf(end));
+    }
+
+    /**
+     * 以增量方式写入累积的分桶；失败时把增量合并回待写入集合
+     */
+    private void flush() {
+        Map<BucketKey, Accumulator> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+        }
+        List<Map.Entry<BucketKey, Accumulator>> entries = new ArrayList<>(batch.entrySet());
+        int from = 0;
+        try {
+            for (; from < entries.size(); from += UPSERT_BATCH_SIZE) {
+                upsert(entries.subList(from, Math.min(entries.size(), from + UPSERT_BATCH_SIZE)));
+            }
+            flushedBuckets.addAndGet(entries.size());
+            log.debug("🗄️ 写入交通流汇总 {} 个分桶", entries.size());
+        } catch (Exception e) {
+            // upsert 为累加，只把未写入的分片合并回去，已写入的分片不能重复提交
+            failedFlushes.incrementAndGet();
+            flushedBuckets.addAndGet(from);
+            List<Map.Entry<BucketKey, Accumulator>> remaining = entries.subList(from, entries.size());
+            log.error("❌ 写入交通流汇总失败, {} 个分桶将在下次合并重试", remaining.size(), e);
+            synchronized (this) {
+                for (Map.Entry<BucketKey, Accumulator> entry : remaining) {
+                    pending.merge(entry.getKey(), entry.getValue(), Accumulator::merge);
+                }
+            }
+        }
+    }
+
+    private void upsert(List<Map.Entry<BucketKey, Accumulator>> entries) {
+        StringBuilder sql = new StringBuilder(UPSERT_PREFIX);
+        Object[] args = new Object[entries.size() * 8];
+        int i = 0;
+        for (Map.Entry<BucketKey, Accumulator> entry : entries) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(UPSERT_ROW);
+            BucketKey key = entry.getKey();
+            Accumulator value = entry.getValue();
+            args[i++] = key.resolution.getCode();
+            args[i++] = key.intersectionId;
+            args[i++] = Timestamp.valueOf(key.bucketStart);
+            args[i++] = value.samples;
+            args[i++] = value.queueSum;
+            args[i++] = value.queueMax;
+            args[i++] = value.vehicleSum;
+            args[i++] = value.vehicleMax;
+        }
+        sql.append(UPSERT_SUFFIX);
+        jdbcTemplate.update(sql.toString(), args);
+    }
+
+    /**
+     * 分批删除过期的原始记录，避免长时间锁表；汇总回填完成之前不删除
+     */
+    private void expireRawRecords() {
+        if (!backfilled) {
+            log.warn("交通流汇总尚未回填完成, 跳过本次原始记录清理");
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(rawRetentionHours);
+        try {
+            int deleted;
+            do {
+                deleted = jdbcTemplate.update("DELETE FROM traffic_flow_records WHERE created_at < ? LIMIT ?",
+                        Timestamp.valueOf(cutoff), RETENTION_DELETE_BATCH_SIZE);
+                expiredRawRows.addAndGet(deleted);
+            } while (deleted == RETENTION_DELETE_BATCH_SIZE);
+            log.info("🗑️ 已清理 {} 之前的原始交通流记录", cutoff);
+        } catch (Exception e) {
+            log.error("❌ 清理过期交通流记录失败", e);
+        }
+    }
+
+    /**
+     * 获取汇总指标（待写入分桶数、已写入分桶数、已清理的原始记录数）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("pendingBuckets", pending.size());
+        }
+        stats.put("flushedBuckets", flushedBuckets.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        stats.put("expiredRawRows", expiredRawRows.get());
+        stats.put("rawRetentionHours", rawRetentionHours);
+        stats.put("backfilled", backfilled);
+        stats.put("backfilledDays", backfilledDays.get());
+        return stats;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class BucketKey {
+        private final Resolution resolution;
+        private final int intersectionId;
+        private final LocalDateTime bucketStart;
+    }
+
+    private static final class Accumulator {
+        int samples;
+        long queueSum;
+        int queueMax;
+        long vehicleSum;
+        int vehicleMax;
+
+        void add(int queue, int vehicles) {
+            samples++;
+            queueSum += queue;
+            queueMax = Math.max(queueMax, queue);
+            vehicleSum += vehicles;
+            vehicleMax = Math.max(vehicleMax, vehicles);
+        }
+
+        Accumulator merge(Accumulator other) {
+            samples += other.samples;
+            queueSum += other.queueSum;
+            queueMax = Math.max(queueMax, other.queueMax);
+            vehicleSum += other.vehicleSum;
+            vehicleMax = Math.max(vehicleMax, other.vehicleMax);
+            return this;
+        }
+    }
+}
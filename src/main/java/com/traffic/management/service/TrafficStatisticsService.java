@@ -0,0 +1,148 @@
+package com.traffic.management.service;
+
+import com.traffic.management.dto.traffic.IntersectionDTO;
+import com.traffic.management.dto.traffic.LaneDTO;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 路口拥堵增量统计
+ *
+ * 每帧到达时把各路口和各车道的排队数、车辆数写入滑动窗口直方图（见 SlidingWindowHistogram），
+ * 查询时直接返回窗口内的均值、最大值和 p50/p95/p99，不需要扫描 traffic_flow_records。
+ * 车道的车辆数为该车道各路段单元格的车辆数之和。
+ */
+@Service
+public class TrafficStatisticsService {
+
+    @Value("${traffic.stats.window-seconds:300}")
+    private long windowSeconds;
+
+    @Value("${traffic.stats.slots:12}")
+    private int slots;
+
+    private final Map<Integer, IntersectionStats> intersections = new ConcurrentHashMap<>();
+
+    /**
+     * 把一帧数据计入统计
+     */
+    public void accept(TrafficDataDTO dto, long nowMillis) {
+        if (dto.getIntersections() == null) {
+            return;
+        }
+        for (IntersectionDTO intersection : dto.getIntersections()) {
+            if (intersection == null || intersection.getId() == null) {
+                continue;
+            }
+            IntersectionStats stats = intersections.computeIfAbsent(intersection.getId(), id -> new IntersectionStats());
+            synchronized (stats) {
+                stats.metrics.record(
+                        intersection.getQueueLength() != null ? intersection.getQueueLength() : 0,
+                        intersection.getVehicleCount() != null ? intersection.getVehicleCount() : 0,
+                        nowMillis);
+                if (intersection.getLanes() == null) {
+                    continue;
+                }
+                for (Map.Entry<String, LaneDTO> lane : intersection.getLanes().entrySet()) {
+                    if (lane.getValue() == null) {
+                        continue;
+                    }
+                    stats.lanes.computeIfAbsent(lane.getKey(), key -> new MetricPair())
+                            .record(lane.getValue().getQueueLen() != null ? lane.getValue().getQueueLen() : 0,
+                                    sumCells(lane.getValue().getCells()), nowMillis);
+                }
+            }
+        }
+    }
+
+    /**
+     * 所有路口的窗口统计（不含车道明细）
+     */
+    public List<Map<String, Object>> getAllIntersectionStats() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> result = new ArrayList<>();
+        new TreeMap<>(intersections).forEach((id, stats) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("intersection_id", id);
+            synchronized (stats) {
+                stats.metrics.putSnapshot(item, now);
+            }
+            result.add(item);
+        });
+        return result;
+    }
+
+    /**
+     * 单个路口及其各车道的窗口统计；路口不存在时返回 null
+     */
+    public Map<String, Object> getIntersectionStats(Integer intersectionId) {
+        IntersectionStats stats = intersections.get(intersectionId);
+        if (stats == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("intersection_id", intersectionId);
+        result.put("window_seconds", windowSeconds);
+        synchronized (stats) {
+            stats.metrics.putSnapshot(result, now);
+            Map<String, Object> lanes = new TreeMap<>();
+            stats.lanes.forEach((name, lane) -> {
+                Map<String, Object> laneStats = new LinkedHashMap<>();
+                lane.putSnapshot(laneStats, now);
+                lanes.put(name, laneStats);
+            });
+            result.put("lanes", lanes);
+        }
+        return result;
+    }
+
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    private static int sumCells(List<Integer> cells) {
+        if (cells == null) {
+            return 0;
+        }
+        int sum = 0;
+        for (Integer cell : cells) {
+            sum += cell != null ? cell : 0;
+        }
+        return sum;
+    }
+
+    /**
+     * 排队数和车辆数两个指标的直方图
+     */
+    private final class MetricPair {
+        final SlidingWindowHistogram queue = new SlidingWindowHistogram(windowSeconds * 1000, slots);
+        final SlidingWindowHistogram vehicles = new SlidingWindowHistogram(windowSeconds * 1000, slots);
+
+        void record(int queueLength, int vehicleCount, long nowMillis) {
+            queue.record(queueLength, nowMillis);
+            vehicles.record(vehicleCount, nowMillis);
+        }
+
+        void putSnapshot(Map<String, Object> target, long nowMillis) {
+            target.put("queue_length", queue.snapshot(nowMillis));
+            target.put("vehicle_count", vehicles.snapshot(nowMillis));
+        }
+    }
+
+    /**
+     * 单个路口的统计，字段由自身的锁保护
+     */
+    private final class IntersectionStats {
+        final MetricPair metrics = new MetricPair();
+        final Map<String, MetricPair> lanes = new LinkedHashMap<>();
+    }
+}
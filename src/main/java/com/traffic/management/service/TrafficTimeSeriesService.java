@@ -0,0 +1,405 @@
+package com.traffic.management.service;
+
+import com.traffic.management.dto.traffic.IntersectionDTO;
+import com.traffic.management.dto.traffic.LaneDTO;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import com.traffic.management.entity.TrafficFlowRecord;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 最近交通帧的内存时序缓冲
+ *
+ * 使用定长的原始类型数组环形缓冲保存最近 N 帧（全局统计 + 每个路口的排队数、
+ * 车辆数和各车道 cells），近期的历史查询直接从内存返回，
+ * 只有早于缓冲区的时间范围才需要查询 MySQL。
+ */
+@Slf4j
+@Service
+public class TrafficTimeSeriesService {
+
+    // 表示 DTO 中为 null 的整数值
+    private static final int NULL_INT = Integer.MIN_VALUE;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    @Value("${traffic.timeseries.capacity:300}")
+    private int capacity;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 帧级别的列，下标为 seq % capacity
+    private long[] receivedAt;
+    private double[] simulationTimestamp;
+    private int[] step;
+    private int[] totalQueue;
+    private int[] totalVehicles;
+    private int[] totalIntersections;
+    private String[] type;
+    private String[] roadnet;
+    private String[] trafficflow;
+    private String[] controlMode;
+
+    // 已写入的总帧数，下一帧的序号
+    private long nextSeq;
+
+    // 按首次出现顺序保存各路口的时序
+    private final Map<Integer, IntersectionSeries> intersections = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        receivedAt = new long[capacity];
+        simulationTimestamp = new double[capacity];
+        step = new int[capacity];
+        totalQueue = new int[capacity];
+        totalVehicles = new int[capacity];
+        totalIntersections = new int[capacity];
+        type = new String[capacity];
+        roadnet = new String[capacity];
+        trafficflow = new String[capacity];
+        controlMode = new String[capacity];
+    }
+
+    /**
+     * 追加一帧数据，超出容量时覆盖最旧的一帧
+     */
+    public void append(TrafficDataDTO dto, int frameTotalQueue, int frameTotalVehicles, LocalDateTime time) {
+        lock.writeLock().lock();
+        try {
+            long seq = nextSeq;
+            int slot = (int) (seq % capacity);
+
+            receivedAt[slot] = toEpochMilli(time);
+            simulationTimestamp[slot] = dto.getTimestamp() != null ? dto.getTimestamp() : Double.NaN;
+            step[slot] = toInt(dto.getStep());
+            totalQueue[slot] = frameTotalQueue;
+            totalVehicles[slot] = frameTotalVehicles;
+            totalIntersections[slot] = toInt(dto.getTotalIntersections());
+            type[slot] = dto.getType();
+            roadnet[slot] = dto.getRoadnet();
+            trafficflow[slot] = dto.getTrafficflow();
+            controlMode[slot] = dto.getControlMode();
+
+            if (dto.getIntersections() != null) {
+                for (IntersectionDTO intersection : dto.getIntersections()) {
+                    if (intersection == null || intersection.getId() == null) {
+                        continue;
+                    }
+                    intersections.computeIfAbsent(intersection.getId(), IntersectionSeries::new)
+                            .write(seq, slot, intersection);
+                }
+            }
+
+            nextSeq = seq + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 缓冲区中的帧数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return (int) Math.min(nextSeq, capacity);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 缓冲区中最旧一帧的接收时间，缓冲区为空时返回 null
+     */
+    public LocalDateTime getOldestReceivedAt() {
+        lock.readLock().lock();
+        try {
+            if (nextSeq == 0) {
+                return null;
+            }
+            return toLocalDateTime(receivedAt[(int) (oldestSeq() % capacity)]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取最近的 limit 帧，按时间倒序（与 findTop100ByOrderByCreatedAtDesc 一致）
+     */
+    public List<TrafficFlowRecord> getRecent(int limit) {
+        lock.readLock().lock();
+        try {
+            long from = Math.max(oldestSeq(), nextSeq - limit);
+            List<TrafficFlowRecord> records = new ArrayList<>((int) Math.max(0, nextSeq - from));
+            for (long seq = nextSeq - 1; seq >= from; seq--) {
+                records.add(toRecord(seq));
+            }
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取 [start, end] 时间范围内的帧，按时间正序
+     */
+    public List<TrafficFlowRecord> getRange(LocalDateTime start, LocalDateTime end) {
+        long startMs = toEpochMilli(start);
+        long endMs = toEpochMilli(end);
+        lock.readLock().lock();
+        try {
+            List<TrafficFlowRecord> records = new ArrayList<>();
+            for (long seq = oldestSeq(); seq < nextSeq; seq++) {
+                long t = receivedAt[(int) (seq % capacity)];
+                if (t > endMs) {
+                    break;
+                }
+                if (t >= startMs) {
+                    records.add(toRecord(seq));
+                }
+            }
+            return records;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取单个路口最近 limit 帧的时序数据，按时间正序
+     */
+    public List<Map<String, Object>> getIntersectionSeries(Integer intersectionId, int limit) {
+        lock.readLock().lock();
+        try {
+            IntersectionSeries series = intersections.get(intersectionId);
+            if (series == null) {
+                return Collections.emptyList();
+            }
+            long from = Math.max(oldestSeq(), nextSeq - limit);
+            List<Map<String, Object>> points = new ArrayList<>();
+            for (long seq = from; seq < nextSeq; seq++) {
+                int slot = (int) (seq % capacity);
+                if (series.seq[slot] != seq) {
+                    continue;
+                }
+                Map<String, Object> point = new LinkedHashMap<>();
+                putIfPresent(point, "step", step[slot]);
+                if (!Double.isNaN(simulationTimestamp[slot])) {
+                    point.put("timestamp", simulationTimestamp[slot]);
+                }
+                point.put("created_at", toLocalDateTime(receivedAt[slot]));
+                series.fill(point, slot);
+                points.add(point);
+            }
+            return points;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long oldestSeq() {
+        return Math.max(0, nextSeq - capacity);
+    }
+
+    /**
+     * 将缓冲中的一帧还原为 TrafficFlowRecord（快照结构与 DTO 序列化结果一致）
+     */
+    private TrafficFlowRecord toRecord(long seq) {
+        int slot = (int) (seq % capacity);
+
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        putIfPresent(snapshot, "type", type[slot]);
+        if (!Double.isNaN(simulationTimestamp[slot])) {
+            snapshot.put("timestamp", simulationTimestamp[slot]);
+        }
+        putIfPresent(snapshot, "step", step[slot]);
+        putIfPresent(snapshot, "roadnet", roadnet[slot]);
+        putIfPresent(snapshot, "trafficflow", trafficflow[slot]);
+        putIfPresent(snapshot, "control_mode", controlMode[slot]);
+        putIfPresent(snapshot, "total_intersections", totalIntersections[slot]);
+        snapshot.put("total_queue", totalQueue[slot]);
+        snapshot.put("total_vehicles", totalVehicles[slot]);
+
+        List<Map<String, Object>> intersectionList = new ArrayList<>();
+        for (IntersectionSeries series : intersections.values()) {
+            if (series.seq[slot] != seq) {
+                continue;
+            }
+            Map<String, Object> intersection = new LinkedHashMap<>();
+            intersection.put("id", series.id);
+            series.fill(intersection, slot);
+            intersectionList.add(intersection);
+        }
+        snapshot.put("intersections", intersectionList);
+
+        return TrafficFlowRecord.builder()
+                .simulationTimestamp(Double.isNaN(simulationTimestamp[slot]) ? null : simulationTimestamp[slot])
+                .step(fromInt(step[slot]))
+                .controlMode(controlMode[slot])
+                .totalQueue(totalQueue[slot])
+                .totalVehicles(totalVehicles[slot])
+                .fullDataSnapshot(snapshot)
+                .createdAt(toLocalDateTime(receivedAt[slot]))
+                .build();
+    }
+
+    /**
+     * 单个路口的时序列，下标与帧级别的列一致
+     */
+    private final class IntersectionSeries {
+        final int id;
+        // 该槽位属于哪一帧，用于判断该路口在某帧中是否存在
+        final long[] seq;
+        final int[] queueLength;
+        final int[] vehicleCount;
+        final int[] phaseCode;
+        final String[] signalPhase;
+
+        // 车道布局：车道名和每车道 cells 数，布局变化时重建
+        String[] laneNames = new String[0];
+        int[] laneCellCount = new int[0];
+        int cellsPerLane;
+        boolean[] hasLanes;
+        int[] laneQueue;
+        int[] cells;
+
+        IntersectionSeries(Integer id) {
+            this.id = id;
+            this.seq = new long[capacity];
+            Arrays.fill(this.seq, -1);
+            this.queueLength = new int[capacity];
+            this.vehicleCount = new int[capacity];
+            this.phaseCode = new int[capacity];
+            this.signalPhase = new String[capacity];
+            this.hasLanes = new boolean[capacity];
+            this.laneQueue = new int[0];
+            this.cells = new int[0];
+        }
+
+        void write(long frameSeq, int slot, IntersectionDTO dto) {
+            Map<String, LaneDTO> lanes = dto.getLanes();
+            if (lanes != null && !layoutMatches(lanes)) {
+                relayout(lanes);
+            }
+
+            seq[slot] = frameSeq;
+            queueLength[slot] = toInt(dto.getQueueLength());
+            vehicleCount[slot] = toInt(dto.getVehicleCount());
+            phaseCode[slot] = toInt(dto.getPhaseCode());
+            signalPhase[slot] = dto.getSignalPhase();
+            hasLanes[slot] = lanes != null;
+
+            if (lanes == null) {
+                return;
+            }
+            int laneBase = slot * laneNames.length;
+            for (int l = 0; l < laneNames.length; l++) {
+                LaneDTO lane = lanes.get(laneNames[l]);
+                laneQueue[laneBase + l] = lane != null ? toInt(lane.getQueueLen()) : NULL_INT;
+                int cellBase = (laneBase + l) * cellsPerLane;
+                List<Integer> laneCells = lane != null ? lane.getCells() : null;
+                for (int c = 0; c < laneCellCount[l]; c++) {
+                    cells[cellBase + c] = laneCells != null ? toInt(laneCells.get(c)) : NULL_INT;
+                }
+            }
+        }
+
+        void fill(Map<String, Object> target, int slot) {
+            putIfPresent(target, "signal_phase", signalPhase[slot]);
+            putIfPresent(target, "phase_code", phaseCode[slot]);
+            putIfPresent(target, "queue_length", queueLength[slot]);
+            putIfPresent(target, "vehicle_count", vehicleCount[slot]);
+            if (!hasLanes[slot]) {
+                return;
+            }
+            Map<String, Object> lanes = new LinkedHashMap<>();
+            int laneBase = slot * laneNames.length;
+            for (int l = 0; l < laneNames.length; l++) {
+                Map<String, Object> lane = new LinkedHashMap<>();
+                int cellBase = (laneBase + l) * cellsPerLane;
+                List<Integer> laneCells = new ArrayList<>(laneCellCount[l]);
+                for (int c = 0; c < laneCellCount[l]; c++) {
+                    laneCells.add(fromInt(cells[cellBase + c]));
+                }
+                lane.put("cells", laneCells);
+                putIfPresent(lane, "queue_len", laneQueue[laneBase + l]);
+                lanes.put(laneNames[l], lane);
+            }
+            target.put("lanes", lanes);
+        }
+
+        private boolean layoutMatches(Map<String, LaneDTO> lanes) {
+            if (lanes.size() != laneNames.length) {
+                return false;
+            }
+            for (int l = 0; l < laneNames.length; l++) {
+                LaneDTO lane = lanes.get(laneNames[l]);
+                if (lane == null || cellCount(lane) != laneCellCount[l]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 车道布局变化（路网切换等）时重建车道数组，旧帧的车道数据随之失效
+         */
+        private void relayout(Map<String, LaneDTO> lanes) {
+            laneNames = lanes.keySet().toArray(new String[0]);
+            laneCellCount = new int[laneNames.length];
+            cellsPerLane = 0;
+            for (int l = 0; l < laneNames.length; l++) {
+                laneCellCount[l] = cellCount(lanes.get(laneNames[l]));
+                cellsPerLane = Math.max(cellsPerLane, laneCellCount[l]);
+            }
+            laneQueue = new int[capacity * laneNames.length];
+            cells = new int[capacity * laneNames.length * cellsPerLane];
+            Arrays.fill(hasLanes, false);
+            log.debug("路口 {} 车道布局变化, 车道数: {}, 每车道 cells: {}", id, laneNames.length, cellsPerLane);
+        }
+    }
+
+    private static int cellCount(LaneDTO lane) {
+        return lane != null && lane.getCells() != null ? lane.getCells().size() : 0;
+    }
+
+    private static int toInt(Integer value) {
+        return value != null ? value : NULL_INT;
+    }
+
+    private static Integer fromInt(int value) {
+        return value != NULL_INT ? value : null;
+    }
+
+    private static void putIfPresent(Map<String, Object> target, String key, int value) {
+        if (value != NULL_INT) {
+            target.put(key, value);
+        }
+    }
+
+    private static void putIfPresent(Map<String, Object> target, String key, String value) {
+        if (value != null) {
+            target.put(key, value);
+        }
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZONE).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMilli) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMilli), ZONE);
+    }
+}
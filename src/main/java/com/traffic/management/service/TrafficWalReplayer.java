@@ -0,0 +1,135 @@
+package com.traffic.management.service;
+
+import com.traffic.management.entity.TrafficFlowRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预写日志回放线程
+ *
+ * 从 checkpoint 开始按顺序读取 TrafficWriteAheadLog，凑满一批（或等待满刷写间隔）后
+ * 通过 TrafficFlowWriteBehindService 的多行 INSERT 写入 MySQL，成功后推进 checkpoint。
+ * MySQL 不可用时保持位置不变，间隔重试，恢复后自动追上积压的数据。
+ * 写入成功但 checkpoint 未保存时进程崩溃，重启后该批会再写一次（至少一次语义）。
+ */
+@Slf4j
+@Service
+public class TrafficWalReplayer {
+
+    @Autowired
+    private TrafficWriteAheadLog writeAheadLog;
+
+    @Autowired
+    private TrafficDataService trafficDataService;
+
+    @Autowired
+    private TrafficFlowWriteBehindService writeBehindService;
+
+    @Value("${traffic.persistence.batch-size:200}")
+    private int batchSize;
+
+    @Value("${traffic.persistence.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${traffic.persistence.retry-delay-ms:2000}")
+    private long retryDelayMs;
+
+    private Thread replayThread;
+    private volatile boolean running;
+
+    private final AtomicLong replayedCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private volatile long lastFailureAt;
+
+    @PostConstruct
+    public void start() {
+        if (!writeAheadLog.isEnabled()) {
+            return;
+        }
+        running = true;
+        replayThread = new Thread(this::replayLoop, "traffic-wal-replay");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (replayThread == null) {
+            return;
+        }
+        running = false;
+        replayThread.interrupt();
+        replayThread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    private void replayLoop() {
+        TrafficWriteAheadLog.Position position = writeAheadLog.getCheckpoint();
+        List<TrafficFlowRecord> pending = new ArrayList<>(batchSize);
+        TrafficWriteAheadLog.Position pendingEnd = position;
+        long firstPendingAt = 0;
+
+        while (running) {
+            try {
+                if (pending.size() < batchSize) {
+                    TrafficWriteAheadLog.Batch batch = writeAheadLog.read(pendingEnd, batchSize - pending.size());
+                    for (TrafficWriteAheadLog.Entry entry : batch.getEntries()) {
+                        pending.add(trafficDataService.buildHistoryRecord(entry.getData(), entry.getReceivedAt()));
+                    }
+                    if (!batch.getEntries().isEmpty() && firstPendingAt == 0) {
+                        firstPendingAt = System.currentTimeMillis();
+                    }
+                    pendingEnd = batch.getNext();
+                }
+
+                boolean due = !pending.isEmpty()
+                        && (pending.size() >= batchSize || System.currentTimeMillis() - firstPendingAt >= flushIntervalMs);
+                if (!due) {
+                    Thread.sleep(pending.isEmpty() ? flushIntervalMs : 50);
+                    continue;
+                }
+
+                // writeOrSplit 会移除已写入的记录，先记下条数
+                int size = pending.size();
+                writeBehindService.writeOrSplit(pending);
+                writeAheadLog.commit(pendingEnd);
+                replayedCount.addAndGet(size);
+                pending.clear();
+                firstPendingAt = 0;
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (Exception e) {
+                failedFlushCount.incrementAndGet();
+                lastFailureAt = System.currentTimeMillis();
+                log.error("❌ 预写日志回放失败, {} 条记录将在 {}ms 后重试", pending.size(), retryDelayMs, e);
+                try {
+                    Thread.sleep(retryDelayMs);
+                } catch (InterruptedException ie) {
+                    running = false;
+                }
+            }
+        }
+        log.info("预写日志回放线程已停止, 未写入的 {} 条记录保留在日志中", pending.size());
+    }
+
+    /**
+     * 获取回放指标（已回放条数、失败次数）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>(writeAheadLog.getStats());
+        stats.put("replayed", replayedCount.get());
+        stats.put("failedFlushes", failedFlushCount.get());
+        stats.put("lastFailureAt", lastFailureAt);
+        return stats;
+    }
+}
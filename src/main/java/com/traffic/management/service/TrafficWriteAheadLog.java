@@ -0,0 +1,397 @@
+package com.traffic.management.service;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.traffic.management.dto.traffic.TrafficDataDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 交通数据帧的本地预写日志（WAL）
+ *
+ * 每帧在处理前以 CBOR 追加到内存映射的分段文件中，MySQL 写入由 TrafficWalReplayer
+ * 从日志中按顺序读取并批量落库，数据库卡顿或宕机时摄入只需写一次内存映射，延迟不受影响。
+ *
+ * 记录格式: [int 长度][int CRC32][long 接收时间毫秒][CBOR 数据]，长度为 0 表示段内数据结束。
+ * 长度最后写入，进程崩溃时写了一半的记录会因长度为 0 或 CRC 不符被跳过。
+ * 段文件写满后切换到新段；每次启动都新开一段，旧段只读，等待回放。
+ * 已回放完并超过保留时间的段会被删除，未回放的段始终保留。
+ */
+@Slf4j
+@Service
+public class TrafficWriteAheadLog {
+
+    private static final int HEADER_BYTES = 16;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    @Autowired
+    @Qualifier("cborObjectMapper")
+    private CBORMapper cborObjectMapper;
+
+    @Value("${traffic.wal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${traffic.wal.dir:./data/traffic-wal}")
+    private String dir;
+
+    @Value("${traffic.wal.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    // 定期把内存映射刷到磁盘的间隔；进程崩溃不丢数据，该间隔只影响操作系统崩溃时的丢失窗口
+    @Value("${traffic.wal.sync-interval-ms:1000}")
+    private long syncIntervalMs;
+
+    @Value("${traffic.wal.retention-hours:24}")
+    private long retentionHours;
+
+    private Path directory;
+    private final NavigableSet<Long> segments = new ConcurrentSkipListSet<>();
+    private ScheduledExecutorService syncExecutor;
+
+    // 写入状态，由 this 锁保护
+    private long activeSegmentId;
+    private MappedByteBuffer writeBuffer;
+    private int writeOffset;
+
+    // 已完整写入的末尾位置，回放线程只读取到这里
+    private volatile Position writePosition;
+    private volatile Position checkpoint;
+
+    // 回放线程当前读取的段，只由回放线程访问
+    private long readSegmentId = -1;
+    private MappedByteBuffer readBuffer;
+
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+    private final AtomicLong corruptCount = new AtomicLong();
+    private final AtomicLong deletedSegmentCount = new AtomicLong();
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled) {
+            log.info("交通数据预写日志已关闭");
+            return;
+        }
+        directory = Paths.get(dir).toAbsolutePath();
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> parseSegmentId(path.getFileName().toString()))
+                    .filter(id -> id >= 0)
+                    .forEach(segments::add);
+        }
+        checkpoint = loadCheckpoint();
+
+        openSegment(segments.isEmpty() ? 0 : segments.last() + 1, segmentBytes);
+
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "traffic-wal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncExecutor.scheduleWithFixedDelay(this::syncAndClean, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("交通数据预写日志已启动: dir={}, segments={}, checkpoint={}", directory, segments.size(), checkpoint);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (syncExecutor == null) {
+            return;
+        }
+        syncExecutor.shutdownNow();
+        synchronized (this) {
+            writeBuffer.force();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加一帧数据，返回时数据已写入内存映射（进程崩溃不会丢失）
+     */
+    public void append(TrafficDataDTO dto, LocalDateTime receivedAt) throws IOException {
+        byte[] payload = cborObjectMapper.writeValueAsBytes(dto);
+        long receivedAtMillis = receivedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+        CRC32 crc = new CRC32();
+        crc.update(longToBytes(receivedAtMillis));
+        crc.update(payload);
+
+        int size = HEADER_BYTES + payload.length;
+        synchronized (this) {
+            if (writeOffset + size > writeBuffer.capacity()) {
+                writeBuffer.force();
+                openSegment(activeSegmentId + 1, Math.max(segmentBytes, size));
+            }
+            writeBuffer.putInt(writeOffset + 4, (int) crc.getValue());
+            writeBuffer.putLong(writeOffset + 8, receivedAtMillis);
+            writeBuffer.put(writeOffset + HEADER_BYTES, payload);
+            writeBuffer.putInt(writeOffset, payload.length);
+            writeOffset += size;
+            writePosition = new Position(activeSegmentId, writeOffset);
+        }
+        appendedCount.incrementAndGet();
+        appendedBytes.addAndGet(size);
+    }
+
+    /**
+     * 从指定位置起最多读取 maxEntries 条记录（只由回放线程调用）
+     */
+    public Batch read(Position from, int maxEntries) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long segmentId = from.getSegmentId();
+        int offset = from.getOffset();
+
+        while (entries.size() < maxEntries) {
+            Position head = writePosition;
+            boolean active = segmentId == head.getSegmentId();
+            if (active && offset >= head.getOffset()) {
+                break;
+            }
+            MappedByteBuffer buffer = mapForRead(segmentId);
+            int limit = active ? head.getOffset() : (buffer != null ? buffer.capacity() : 0);
+
+            Entry entry = buffer != null ? decode(buffer, offset, limit) : null;
+            if (entry == null) {
+                // 旧段读完（或尾部记录损坏），跳到下一段
+                Long next = segments.higher(segmentId);
+                if (next == null || active) {
+                    break;
+                }
+                segmentId = next;
+                offset = 0;
+                continue;
+            }
+            entries.add(entry);
+            offset += HEADER_BYTES + entry.getSize();
+        }
+        return new Batch(entries, new Position(segmentId, offset));
+    }
+
+    /**
+     * 记录已成功落库的位置，之前的数据不会再被回放
+     */
+    public void commit(Position position) throws IOException {
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(tmp, position.getSegmentId() + " " + position.getOffset(), StandardCharsets.UTF_8);
+        Files.move(tmp, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpoint = position;
+    }
+
+    public Position getCheckpoint() {
+        return checkpoint;
+    }
+
+    private Entry decode(MappedByteBuffer buffer, int offset, int limit) {
+        if (offset + HEADER_BYTES > limit) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + HEADER_BYTES + length > limit) {
+            return null;
+        }
+        int expectedCrc = buffer.getInt(offset + 4);
+        long receivedAtMillis = buffer.getLong(offset + 8);
+        byte[] payload = new byte[length];
+        buffer.get(offset + HEADER_BYTES, payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(longToBytes(receivedAtMillis));
+        crc.update(payload);
+        if ((int) crc.getValue() != expectedCrc) {
+            corruptCount.incrementAndGet();
+            log.warn("⚠️ 预写日志记录校验失败, 跳过段的剩余部分 (offset: {})", offset);
+            return null;
+        }
+        try {
+            TrafficDataDTO dto = cborObjectMapper.readValue(payload, TrafficDataDTO.class);
+            LocalDateTime receivedAt = LocalDateTime.ofInstant(Instant.ofEpochMilli(receivedAtMillis), ZoneId.systemDefault());
+            return new Entry(dto, receivedAt, length);
+        } catch (IOException e) {
+            corruptCount.incrementAndGet();
+            log.warn("⚠️ 预写日志记录无法解析, 跳过段的剩余部分 (offset: {})", offset, e);
+            return null;
+        }
+    }
+
+    private MappedByteBuffer mapForRead(long segmentId) throws IOException {
+        if (segmentId == readSegmentId) {
+            return readBuffer;
+        }
+        Path path = segmentPath(segmentId);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            readBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        readSegmentId = segmentId;
+        return readBuffer;
+    }
+
+    private void openSegment(long segmentId, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentId),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            writeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        activeSegmentId = segmentId;
+        writeOffset = 0;
+        segments.add(segmentId);
+        writePosition = new Position(segmentId, 0);
+        if (checkpoint == null) {
+            checkpoint = new Position(segments.first(), 0);
+        }
+        log.debug("预写日志切换到新段 {}", segmentId);
+    }
+
+    /**
+     * 定期刷盘，并删除已回放且超过保留时间的段
+     */
+    private void syncAndClean() {
+        try {
+            MappedByteBuffer buffer;
+            synchronized (this) {
+                buffer = writeBuffer;
+            }
+            buffer.force();
+
+            FileTime expireBefore = FileTime.from(Instant.now().minus(retentionHours, ChronoUnit.HOURS));
+            for (Long segmentId : segments.headSet(checkpoint.getSegmentId(), false)) {
+                Path path = segmentPath(segmentId);
+                if (Files.getLastModifiedTime(path).compareTo(expireBefore) < 0) {
+                    Files.deleteIfExists(path);
+                    segments.remove(segmentId);
+                    deletedSegmentCount.incrementAndGet();
+                    log.info("🗑️ 删除过期的预写日志段 {}", path.getFileName());
+                }
+            }
+        } catch (Exception e) {
+            log.error("❌ 预写日志刷盘或清理失败", e);
+        }
+    }
+
+    private Position loadCheckpoint() throws IOException {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return segments.isEmpty() ? null : new Position(segments.first(), 0);
+        }
+        String[] parts = Files.readString(path, StandardCharsets.UTF_8).trim().split(" ");
+        return new Position(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+
+    private static long parseSegmentId(String fileName) {
+        if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] longToBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    /**
+     * 获取预写日志的运行指标（段数量、写入量、回放进度）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        if (!enabled) {
+            return stats;
+        }
+        Position head = writePosition;
+        Position committed = checkpoint;
+        stats.put("segments", segments.size());
+        stats.put("appended", appendedCount.get());
+        stats.put("appendedBytes", appendedBytes.get());
+        stats.put("corruptRecords", corruptCount.get());
+        stats.put("deletedSegments", deletedSegmentCount.get());
+        stats.put("writePosition", head.toString());
+        stats.put("checkpoint", committed.toString());
+        stats.put("pendingSegments", head.getSegmentId() - committed.getSegmentId());
+        return stats;
+    }
+
+    /**
+     * 日志中的位置：段号 + 段内偏移
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Position {
+        private final long segmentId;
+        private final int offset;
+
+        @Override
+        public String toString() {
+            return segmentId + ":" + offset;
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final TrafficDataDTO data;
+        private final LocalDateTime receivedAt;
+        private final int size;
+    }
+
+    /**
+     * 一次读取的结果，next 为最后一条记录之后的位置
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Batch {
+        private final List<Entry> entries;
+        private final Position next;
+    }
+}
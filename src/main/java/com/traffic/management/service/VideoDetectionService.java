@@ -24,6 +24,9 @@ public class VideoDetectionService {
     @Autowired
     private ViolationService violationService;
 
+    @Autowired
+    private DistinctVehicleService distinctVehicleService;
+
     @Autowired
     private MinioClient minioClient;
 
@@ -106,6 +109,11 @@ public class VideoDetectionService {
                     .atZone(java.time.ZoneId.systemDefault()).toLocalDateTime();
         }
 
+        // 记录检测到的车辆（去重车辆统计，不论是否构成违章）
+        if (detectionResult.get("plateNumber") != null) {
+            distinctVehicleService.onDetected(intersectionId, detectionResult.get("plateNumber").toString(), violationTime);
+        }
+
         // 获取方向和转弯类型信息（从检测结果中解析或使用默认值）
         Violation.Direction direction = parseDirection(detectionResult);
         Violation.TurnType turnType = parseTurnType(detectionResult, standardType);
@@ -0,0 +1,257 @@
+package com.traffic.management.service;
+
+import com.traffic.management.entity.Violation;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 违章列表筛选总数
+ *
+ * 每种筛选组合 (类型, 车牌关键字) 用一条 COUNT 查询统计，不再加载实体；结果在本地缓存 ttl 时长。
+ * 新上报的违章在事务提交后直接给匹配的缓存项加一（增量维护），不需要等缓存过期；
+ * 回滚的上报不计数，可能已经数到该违章的缓存项（查询开始于上报之后）直接丢弃。
+ * 带车牌关键字的条件优先使用 ViolationPlateIndex，不再执行 LIKE '%x%' 扫描。
+ * 计数最多扫描 exact-limit 行：超过时无筛选的总数改用 information_schema 中的表行数估计值，
+ * 有筛选的总数返回 exact-limit（下界），两种情况都标记为近似值。
+ */
+@Service
+public class ViolationCountService {
+
+    private static final String ESTIMATE_SQL = "SELECT TABLE_ROWS FROM information_schema.TABLES "
+            + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'violations'";
+    private static final int MAX_CACHED_FILTERS = 1000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ViolationPlateIndex violationPlateIndex;
+
+    @Value("${violation.count.cache-ttl-ms:30000}")
+    private long cacheTtlMs;
+
+    @Value("${violation.count.exact-limit:100000}")
+    private long exactLimit;
+
+    @Value("${violation.plate-index.max-candidates:5000}")
+    private int plateIndexMaxCandidates;
+
+    private final Map<Filter, Entry> cache = new ConcurrentHashMap<>();
+    // 每次提交后的增量维护加一，查询期间发生过增量维护的结果不写入缓存；与写入缓存一起由 this 锁保护
+    private long version;
+
+    /**
+     * 获取筛选条件下的违章总数，type 无效时按无类型筛选统计
+     */
+    public Total count(String search, String type) {
+        Filter filter = new Filter(parseType(type), search != null && !search.isEmpty() ? search : null);
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(filter);
+        if (entry != null && entry.expiresAt > now) {
+            return entry.toTotal();
+        }
+
+        long versionAtStart;
+        synchronized (this) {
+            versionAtStart = version;
+        }
+        long queriedAt = System.nanoTime();
+        entry = query(filter, now + cacheTtlMs);
+        entry.queriedAt = queriedAt;
+        synchronized (this) {
+            if (version != versionAtStart) {
+                return entry.toTotal();
+            }
+            if (cache.size() >= MAX_CACHED_FILTERS) {
+                cache.values().removeIf(cached -> cached.expiresAt <= now);
+                if (cache.size() >= MAX_CACHED_FILTERS) {
+                    cache.clear();
+                }
+            }
+            cache.put(filter, entry);
+        }
+        return entry.toTotal();
+    }
+
+    /**
+     * 新违章写入后调用：在事务中调用时推迟到提交之后，给所有匹配的精确计数缓存项加一
+     */
+    public void onReported(List<Violation> violations) {
+        // 提交一定晚于这一时刻，更早开始的查询数不到这些违章
+        long reportedAt = System.nanoTime();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    increment(violations, reportedAt);
+                }
+            });
+        } else {
+            increment(violations, reportedAt);
+        }
+    }
+
+    private synchronized void increment(List<Violation> violations, long reportedAt) {
+        version++;
+        if (cache.isEmpty()) {
+            return;
+        }
+        for (Iterator<Map.Entry<Filter, Entry>> it = cache.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Filter, Entry> cached = it.next();
+            Entry entry = cached.getValue();
+            if (entry.approximate) {
+                continue;
+            }
+            if (entry.queriedAt - reportedAt >= 0) {
+                // 查询可能已经数到这些违章，丢弃后重新查询
+                it.remove();
+                continue;
+            }
+            int matched = 0;
+            for (Violation violation : violations) {
+                if (cached.getKey().matches(violation)) {
+                    matched++;
+                }
+            }
+            if (matched > 0) {
+                synchronized (entry) {
+                    entry.count += matched;
+                }
+            }
+        }
+    }
+
+    /**
+     * 最多数到 exactLimit + 1 行，避免大结果集的全量计数
+     */
+    private Entry query(Filter filter, long expiresAt) {
+        if (filter.search != null) {
+            Entry indexed = queryByPlateIndex(filter, expiresAt);
+            if (indexed != null) {
+                return indexed;
+            }
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM (SELECT 1 FROM violations WHERE 1 = 1");
+        List<Object> args = new ArrayList<>(3);
+        if (filter.type != null) {
+            sql.append(" AND violation_type = ?");
+            args.add(filter.type.name());
+        }
+        if (filter.search != null) {
+            sql.append(" AND plate_number LIKE ?");
+            args.add("%" + escapeLike(filter.search) + "%");
+        }
+        sql.append(" LIMIT ?) limited");
+        args.add(exactLimit + 1);
+
+        Long counted = jdbcTemplate.queryForObject(sql.toString(), Long.class, args.toArray());
+        long count = counted != null ? counted : 0;
+        if (count <= exactLimit) {
+            return new Entry(count, false, expiresAt);
+        }
+        if (filter.type == null && filter.search == null) {
+            Long estimate = jdbcTemplate.queryForObject(ESTIMATE_SQL, Long.class);
+            return new Entry(estimate != null ? Math.max(estimate, exactLimit) : exactLimit, true, expiresAt);
+        }
+        return new Entry(exactLimit, true, expiresAt);
+    }
+
+    /**
+     * 用车牌索引计数：只有车牌条件时直接返回索引中的精确数量，
+     * 同时有类型条件时按候选ID统计；索引未就绪或候选过多时返回 null
+     */
+    private Entry queryByPlateIndex(Filter filter, long expiresAt) {
+        if (filter.type == null) {
+            long count = violationPlateIndex.count(filter.search);
+            return count >= 0 ? new Entry(count, false, expiresAt) : null;
+        }
+        long[] ids = violationPlateIndex.search(filter.search, plateIndexMaxCandidates);
+        if (ids == null) {
+            return null;
+        }
+        if (ids.length == 0) {
+            return new Entry(0, false, expiresAt);
+        }
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM violations WHERE violation_type = ? AND id IN (");
+        Object[] args = new Object[ids.length + 1];
+        args[0] = filter.type.name();
+        for (int i = 0; i < ids.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+            args[i + 1] = ids[i];
+        }
+        sql.append(')');
+        Long counted = jdbcTemplate.queryForObject(sql.toString(), Long.class, args);
+        return new Entry(counted != null ? counted : 0, false, expiresAt);
+    }
+
+    private static Violation.ViolationType parseType(String type) {
+        if (type == null || type.isEmpty()) {
+            return null;
+        }
+        try {
+            return Violation.ViolationType.valueOf(type);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * 违章总数，approximate 为 true 时 count 是估计值或下界
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Total {
+        private final long count;
+        private final boolean approximate;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class Filter {
+        final Violation.ViolationType type;
+        final String search;
+
+        boolean matches(Violation violation) {
+            return (type == null || type == violation.getViolationType())
+                    && (search == null || (violation.getPlateNumber() != null
+                    // 与 MySQL 的 utf8mb4_unicode_ci 排序规则一致，不区分大小写
+                    && violation.getPlateNumber().toUpperCase().contains(search.toUpperCase())));
+        }
+    }
+
+    private static final class Entry {
+        long count;
+        final boolean approximate;
+        final long expiresAt;
+        // 查询开始的 System.nanoTime()
+        long queriedAt;
+
+        Entry(long count, boolean approximate, long expiresAt) {
+            this.count = count;
+            this.approximate = approximate;
+            this.expiresAt = expiresAt;
+        }
+
+        synchronized Total toTotal() {
+            return new Total(count, approximate);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.traffic.management.service;
+
+import com.traffic.management.entity.Violation;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 违章小时汇总 (violation_hourly_cube)
+ *
+ * 按 (小时桶, 路口, 违章类型, 处理状态) 保存违章数量。上报违章时对应单元加一，处理违章改变状态时
+ * 从旧状态单元移到新状态单元，都在违章写入的同一事务中执行：增量先在事务内累积，
+ * 提交前（beforeCommit）作为事务的最后一批语句写入，热点单元的行锁只在提交前短暂持有。
+ * 统计查询把时间范围拆成完整小时（读汇总表）和首尾不足一小时的部分（按 occurred_at 索引读明细），
+ * 结果与直接扫描明细一致，开销只与小时桶数量有关。
+ * 汇总表为空时启动后台回填，也可以通过 rebuild() 手动全量重建。
+ * 回填或重建完成之前汇总表不完整，这期间的统计查询全部按明细分组计算。
+ */
+@Slf4j
+@Service
+public class ViolationCubeService {
+
+    private static final String UPSERT = "INSERT INTO violation_hourly_cube "
+            + "(bucket_hour, intersection_id, violation_type, status, violation_count) VALUES (?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE violation_count = violation_count + VALUES(violation_count)";
+    private static final String SELECT_CUBE = "SELECT bucket_hour, intersection_id, violation_type, status, "
+            + "violation_count FROM violation_hourly_cube WHERE bucket_hour >= ? AND bucket_hour < ?";
+    private static final String SELECT_RAW = "SELECT DATE_FORMAT(occurred_at, '%Y-%m-%d %H:00:00') AS bucket_hour, "
+            + "intersection_id, violation_type, status, COUNT(*) AS violation_count FROM violations "
+            + "WHERE occurred_at >= ? AND occurred_at < ? GROUP BY 1, 2, 3, 4";
+    private static final String DELETE_RANGE = "DELETE FROM violation_hourly_cube WHERE bucket_hour >= ? AND bucket_hour < ?";
+    private static final String BACKFILL_RANGE = "INSERT INTO violation_hourly_cube "
+            + "(bucket_hour, intersection_id, violation_type, status, violation_count) "
+            + "SELECT DATE_FORMAT(occurred_at, '%Y-%m-%d %H:00:00'), intersection_id, violation_type, status, COUNT(*) "
+            + "FROM violations WHERE occurred_at >= ? AND occurred_at < ? GROUP BY 1, 2, 3, 4";
+    private static final String SELECT_RAW_WINDOWS = "SELECT occurred_at >= ? AS current_window, status, COUNT(*) "
+            + "FROM violations WHERE occurred_at >= ? AND occurred_at < ? GROUP BY 1, 2";
+
+    // 当前事务中累积的增量，以此为键绑定到事务
+    private static final String PENDING_RESOURCE = ViolationCubeService.class.getName() + ".pending";
+    private static final Comparator<Object[]> ROW_ORDER = Comparator
+            .comparing((Object[] row) -> (Timestamp) row[0])
+            .thenComparing(row -> (Long) row[1])
+            .thenComparing(row -> (String) row[2])
+            .thenComparing(row -> (String) row[3]);
+
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00:00");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${violation.cube.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+
+    // 汇总表数据完整，可以用于查询
+    private volatile boolean ready;
+
+    private final RowMapper<Cell> cellMapper = (rs, rowNum) -> new Cell(
+            LocalDateTime.parse(rs.getString("bucket_hour").replace(' ', 'T').substring(0, 19)),
+            rs.getLong("intersection_id"),
+            rs.getString("violation_type"),
+            rs.getString("status"),
+            rs.getLong("violation_count"));
+
+    @PostConstruct
+    public void start() {
+        if (!backfillOnStartup) {
+            ready = true;
+            return;
+        }
+        Thread backfill = new Thread(() -> {
+            try {
+                Integer cubeRows = jdbcTemplate.queryForObject(
+                        "SELECT COUNT(*) FROM (SELECT 1 FROM violation_hourly_cube LIMIT 1) t", Integer.class);
+                if (cubeRows != null && cubeRows == 0) {
+                    rebuild();
+                } else {
+                    ready = true;
+                }
+            } catch (Exception e) {
+                log.error("❌ 违章汇总表回填失败，统计查询继续使用明细", e);
+            }
+        }, "violation-cube-backfill");
+        backfill.setDaemon(true);
+        backfill.start();
+    }
+
+    // ========== 增量维护 ==========
+
+    /**
+     * 新违章写入后调用（在同一事务中调用时于提交前写入）
+     */
+    public void onReported(List<Violation> violations) {
+        Map<List<Object>, Integer> increments = new HashMap<>();
+        for (Violation violation : violations) {
+            increments.merge(key(violation, violation.getStatus()), 1, Integer::sum);
+        }
+        apply(increments);
+    }
+
+    /**
+     * 违章状态变化后调用（在同一事务中调用时于提交前写入）
+     */
+    public void onStatusChanged(Violation violation, Violation.ViolationStatus previous) {
+        if (previous == violation.getStatus()) {
+            return;
+        }
+        Map<List<Object>, Integer> increments = new HashMap<>();
+        increments.put(key(violation, previous), -1);
+        increments.put(key(violation, violation.getStatus()), 1);
+        apply(increments);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(Map<List<Object>, Integer> increments) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            write(increments);
+            return;
+        }
+        Map<List<Object>, Integer> pending =
+                (Map<List<Object>, Integer>) TransactionSynchronizationManager.getResource(PENDING_RESOURCE);
+        if (pending == null) {
+            Map<List<Object>, Integer> transactionPending = new HashMap<>();
+            TransactionSynchronizationManager.bindResource(PENDING_RESOURCE, transactionPending);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    write(transactionPending);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PENDING_RESOURCE);
+                }
+            });
+            pending = transactionPending;
+        }
+        for (Map.Entry<List<Object>, Integer> increment : increments.entrySet()) {
+            pending.merge(increment.getKey(), increment.getValue(), Integer::sum);
+        }
+    }
+
+    /**
+     * 按固定顺序写入，并发事务以相同顺序加锁，不会互相死锁
+     */
+    private void write(Map<List<Object>, Integer> increments) {
+        List<Object[]> args = new ArrayList<>(increments.size());
+        increments.forEach((key, delta) -> {
+            if (delta != 0) {
+                args.add(new Object[]{key.get(0), key.get(1), key.get(2), key.get(3), delta});
+            }
+        });
+        if (args.isEmpty()) {
+            return;
+        }
+        args.sort(ROW_ORDER);
+        jdbcTemplate.batchUpdate(UPSERT, args);
+    }
+
+    private static List<Object> key(Violation violation, Violation.ViolationStatus status) {
+        return List.of(Timestamp.valueOf(violation.getOccurredAt().truncatedTo(ChronoUnit.HOURS)),
+                violation.getIntersectionId(), violation.getViolationType().name(), status.name());
+    }
+
+    /**
+     * 按天分段全量重建汇总表，每天一个事务；重建期间及重建失败后查询改用明细
+     */
+    public synchronized long rebuild() {
+        ready = false;
+        long start = System.currentTimeMillis();
+        Map<String, Object> bounds = jdbcTemplate.queryForMap("SELECT MIN(occurred_at) AS first, MAX(occurred_at) AS last FROM violations");
+        if (bounds.get("first") == null) {
+            ready = true;
+            return 0;
+        }
+        LocalDateTime day = toLocalDateTime(bounds.get("first")).truncatedTo(ChronoUnit.DAYS);
+        LocalDateTime last = toLocalDateTime(bounds.get("last"));
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        long days = 0;
+        while (!day.isAfter(last)) {
+            Timestamp from = Timestamp.valueOf(day);
+            Timestamp to = Timestamp.valueOf(day.plusDays(1));
+            transaction.executeWithoutResult(status -> {
+                jdbcTemplate.update(DELETE_RANGE, from, to);
+                jdbcTemplate.update(BACKFILL_RANGE, from, to);
+            });
+            day = day.plusDays(1);
+            days++;
+        }
+        ready = true;
+        log.info("📊 违章汇总表重建完成: {} 天, 耗时 {}ms", days, System.currentTimeMillis() - start);
+        return days;
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        return value instanceof Timestamp ? ((Timestamp) value).toLocalDateTime() : (LocalDateTime) value;
+    }
+
+    // ========== 查询 ==========
+
+    /**
+     * [startTime, endTime] 范围内的全部汇总单元：完整小时来自汇总表，首尾不足一小时的部分来自明细
+     */
+    private List<Cell> cells(LocalDateTime startTime, LocalDateTime endTime) {
+        // 统计接口的结束时间通常是 23:59:59.999999999，转为开区间后正好落在整点
+        LocalDateTime endExclusive = endTime.plusNanos(1);
+        LocalDateTime firstHour = ceilHour(startTime);
+        LocalDateTime lastHour = endExclusive.truncatedTo(ChronoUnit.HOURS);
+
+        List<Cell> cells = new ArrayList<>();
+        if (!ready || !firstHour.isBefore(lastHour)) {
+            cells.addAll(jdbcTemplate.query(SELECT_RAW, cellMapper, Timestamp.valueOf(startTime), Timestamp.valueOf(endExclusive)));
+            return cells;
+        }
+        if (startTime.isBefore(firstHour)) {
+            cells.addAll(jdbcTemplate.query(SELECT_RAW, cellMapper, Timestamp.valueOf(startTime), Timestamp.valueOf(firstHour)));
+        }
+        cells.addAll(jdbcTemplate.query(SELECT_CUBE, cellMapper, Timestamp.valueOf(firstHour), Timestamp.valueOf(lastHour)));
+        if (lastHour.isBefore(endExclusive)) {
+            cells.addAll(jdbcTemplate.query(SELECT_RAW, cellMapper, Timestamp.valueOf(lastHour), Timestamp.valueOf(endExclusive)));
+        }
+        return cells;
+    }
+
+    /**
+     * 按处理状态统计，另含 TOTAL
+     */
+    public Map<String, Long> countByStatus(LocalDateTime startTime, LocalDateTime endTime) {
+        Map<String, Long> counts = new HashMap<>();
+        long total = 0;
+        for (Cell cell : cells(startTime, endTime)) {
+            counts.merge(cell.status, cell.count, Long::sum);
+            total += cell.count;
+        }
+        counts.put("TOTAL", total);
+        return counts;
+    }
+
+    /**
+     * 一条语句统计前后两个相邻窗口 [previousStart, start) 和 [start, endTime] 的各状态数量，
+     * 返回 {0: 前一窗口, 1: 当前窗口}，每个窗口按状态计数并含 TOTAL。
+     * 完整小时读汇总表（跨 start 的那个小时除外），各边界处不足一小时的部分读明细，两部分 UNION ALL 后一次分组。
+     * 汇总表未就绪时整个范围读明细。
+     */
+    public Map<Integer, Map<String, Long>> countByStatusInWindows(LocalDateTime previousStart, LocalDateTime start,
+                                                                 LocalDateTime endTime) {
+        LocalDateTime endExclusive = endTime.plusNanos(1);
+        if (!ready) {
+            return collectWindows(SELECT_RAW_WINDOWS, Timestamp.valueOf(start), Timestamp.valueOf(previousStart),
+                    Timestamp.valueOf(endExclusive));
+        }
+        LocalDateTime firstHour = ceilHour(previousStart);
+        LocalDateTime lastHour = endExclusive.truncatedTo(ChronoUnit.HOURS);
+        // start 不在整点时，它所在的小时两个窗口各占一部分，只能读明细
+        LocalDateTime splitHour = start.truncatedTo(ChronoUnit.HOURS);
+        boolean splitAligned = splitHour.equals(start);
+
+        List<LocalDateTime[]> raw = new ArrayList<>();
+        raw.add(new LocalDateTime[]{previousStart, min(endExclusive, firstHour)});
+        if (!splitAligned) {
+            raw.add(new LocalDateTime[]{max(previousStart, splitHour), min(endExclusive, splitHour.plusHours(1))});
+        }
+        raw.add(new LocalDateTime[]{max(previousStart, lastHour), endExclusive});
+        raw = mergeRanges(raw);
+
+        StringBuilder sql = new StringBuilder("SELECT current_window, status, SUM(n) FROM (")
+                .append("SELECT bucket_hour >= ? AS current_window, status, violation_count AS n FROM violation_hourly_cube ")
+                .append("WHERE bucket_hour >= ? AND bucket_hour < ?");
+        List<Object> args = new ArrayList<>();
+        args.add(Timestamp.valueOf(start));
+        args.add(Timestamp.valueOf(firstHour));
+        args.add(Timestamp.valueOf(lastHour));
+        if (!splitAligned) {
+            sql.append(" AND bucket_hour <> ?");
+            args.add(Timestamp.valueOf(splitHour));
+        }
+        if (!raw.isEmpty()) {
+            sql.append(" UNION ALL SELECT occurred_at >= ?, status, 1 FROM violations WHERE ");
+            args.add(Timestamp.valueOf(start));
+            for (int i = 0; i < raw.size(); i++) {
+                sql.append(i == 0 ? "" : " OR ").append("(occurred_at >= ? AND occurred_at < ?)");
+                args.add(Timestamp.valueOf(raw.get(i)[0]));
+                args.add(Timestamp.valueOf(raw.get(i)[1]));
+            }
+        }
+        sql.append(") windows GROUP BY current_window, status");
+        return collectWindows(sql.toString(), args.toArray());
+    }
+
+    private Map<Integer, Map<String, Long>> collectWindows(String sql, Object... args) {
+        Map<Integer, Map<String, Long>> windows = new HashMap<>();
+        windows.put(0, new HashMap<>(Map.of("TOTAL", 0L)));
+        windows.put(1, new HashMap<>(Map.of("TOTAL", 0L)));
+        jdbcTemplate.query(sql, rs -> {
+            Map<String, Long> counts = windows.get(rs.getInt(1));
+            long count = rs.getLong(3);
+            counts.merge(rs.getString(2), count, Long::sum);
+            counts.merge("TOTAL", count, Long::sum);
+        }, args);
+        return windows;
+    }
+
+    /**
+     * 合并重叠的时间段，去掉空段（时间范围不足几个小时时，各边界的明细段可能落在同一小时里）
+     */
+    private static List<LocalDateTime[]> mergeRanges(List<LocalDateTime[]> ranges) {
+        ranges.removeIf(range -> !range[0].isBefore(range[1]));
+        ranges.sort((a, b) -> a[0].compareTo(b[0]));
+        List<LocalDateTime[]> merged = new ArrayList<>();
+        for (LocalDateTime[] range : ranges) {
+            LocalDateTime[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && !range[0].isAfter(last[1])) {
+                last[1] = max(last[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    private static LocalDateTime ceilHour(LocalDateTime time) {
+        LocalDateTime hour = time.truncatedTo(ChronoUnit.HOURS);
+        return hour.isBefore(time) ? hour.plusHours(1) : hour;
+    }
+
+    private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static LocalDateTime max(LocalDateTime a, LocalDateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    /**
+     * 按违章类型统计，每行 [type, count]，按数量降序
+     */
+    public List<Object[]> countByType(LocalDateTime startTime, LocalDateTime endTime) {
+        Map<String, Long> counts = new HashMap<>();
+        for (Cell cell : cells(startTime, endTime)) {
+            counts.merge(cell.type, cell.count, Long::sum);
+        }
+        return sortedByCount(counts);
+    }
+
+    /**
+     * 按路口统计，每行 [intersectionId, count]，按数量降序
+     */
+    public List<Object[]> countByIntersection(LocalDateTime startTime, LocalDateTime endTime) {
+        Map<Long, Long> counts = new HashMap<>();
+        for (Cell cell : cells(startTime, endTime)) {
+            counts.merge(cell.intersectionId, cell.count, Long::sum);
+        }
+        return sortedByCount(counts);
+    }
+
+    /**
+     * 按小时（yyyy-MM-dd HH:00:00）或按天（yyyy-MM-dd）统计，每行 [时间, count]，按时间升序
+     */
+    public List<Object[]> countByTime(boolean hourly, LocalDateTime startTime, LocalDateTime endTime) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Cell cell : cells(startTime, endTime)) {
+            String slot = hourly ? cell.hour.format(HOUR_FORMAT) : cell.hour.toLocalDate().toString();
+            counts.merge(slot, cell.count, Long::sum);
+        }
+        List<Object[]> rows = new ArrayList<>(counts.size());
+        counts.forEach((slot, count) -> rows.add(new Object[]{slot, count}));
+        return rows;
+    }
+
+    /**
+     * 热力图：每行 [小时 0-23, 星期 1-7（与 MySQL DAYOFWEEK 一致，1 为周日）, count]
+     */
+    public List<Object[]> heatmap(LocalDateTime startTime, LocalDateTime endTime) {
+        long[][] counts = new long[24][8];
+        for (Cell cell : cells(startTime, endTime)) {
+            counts[cell.hour.getHour()][cell.hour.getDayOfWeek().getValue() % 7 + 1] += cell.count;
+        }
+        List<Object[]> rows = new ArrayList<>();
+        for (int hour = 0; hour < 24; hour++) {
+            for (int dayOfWeek = 1; dayOfWeek <= 7; dayOfWeek++) {
+                if (counts[hour][dayOfWeek] > 0) {
+                    rows.add(new Object[]{hour, dayOfWeek, counts[hour][dayOfWeek]});
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static <K> List<Object[]> sortedByCount(Map<K, Long> counts) {
+        List<Object[]> rows = new ArrayList<>(counts.size());
+        counts.forEach((key, count) -> rows.add(new Object[]{key, count}));
+        rows.sort((a, b) -> Long.compare((Long) b[1], (Long) a[1]));
+        return rows;
+    }
+
+    @AllArgsConstructor
+    private static final class Cell {
+        final LocalDateTime hour;
+        final long intersectionId;
+        final String type;
+        final String status;
+        final long count;
+    }
+}
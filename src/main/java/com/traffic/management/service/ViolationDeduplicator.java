@@ -0,0 +1,339 @@
+package com.traffic.management.service;
+
+import com.traffic.management.entity.Violation;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * 违章重复上报合并
+ *
+ * AI 流水线对同一车辆的同一违章会在连续多帧中重复上报。以 (车牌, 路口, 方向, 违章类型) 为键维护一个过期哈希表
+ * （不是真实车牌的上报，例如 UNKNOWN 或按帧内序号生成的 AI_n，总是直接插入，见 PlateNumberValidator）：
+ * 与上一次上报的发生时间相差不超过 window 的上报视为重复，不再插入新记录，而是合并到首条记录上：
+ * duplicate_count 累加，置信度更高时替换抓拍图片和置信度。窗口随每次重复上报向后滑动，
+ * 超过 window 没有新上报的键由后台线程清除。
+ *
+ * 合并只修改内存中的计数，后台线程每 flush-interval 把有变化的记录用一批 UPDATE 写回 MySQL，
+ * 每秒数千次重复上报也只产生少量写入。同一个键的并发上报在键上串行，首条写入完成前到达的重复上报会等待。
+ * 首条记录所在事务提交后才接受合并：提交前到达的重复上报照常插入，事务回滚时登记被移除，合并结果不会指向不存在的记录。
+ */
+@Slf4j
+@Service
+public class ViolationDeduplicator {
+
+    // image_url 先于 ai_confidence 赋值，比较的是合并前的置信度
+    private static final String MERGE_SQL = "UPDATE violations SET duplicate_count = duplicate_count + ?, "
+            + "image_url = IF(? > COALESCE(ai_confidence, 0), ?, image_url), "
+            + "ai_confidence = GREATEST(COALESCE(ai_confidence, 0), ?) WHERE id = ?";
+    private static final String VIOLATION_CACHE_PREFIX = "violation:";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private PlateNumberValidator plateNumberValidator;
+
+    @Value("${violation.dedupe.enabled:true}")
+    private boolean enabled;
+
+    @Value("${violation.dedupe.window-seconds:30}")
+    private long windowSeconds;
+
+    @Value("${violation.dedupe.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${violation.dedupe.max-keys:100000}")
+    private int maxKeys;
+
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    // 有未写回合并结果的记录
+    private final Queue<Entry> dirty = new ConcurrentLinkedQueue<>();
+    private Thread flusherThread;
+    private volatile boolean running;
+
+    // 监控指标
+    private final AtomicLong mergedCount = new AtomicLong();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong lostMergeCount = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        flusherThread = new Thread(this::flushLoop, "violation-dedupe");
+        flusherThread.setDaemon(true);
+        flusherThread.start();
+    }
+
+    /**
+     * 上报一条违章：窗口内有相同键的记录时合并到该记录并返回它（duplicate=true），
+     * 否则调用 insert 保存并登记为该键的首条记录
+     */
+    public Outcome report(Violation violation, UnaryOperator<Violation> insert) {
+        // UNKNOWN、AI_n 等占位车牌不能区分车辆，不参与合并
+        if (!enabled || !plateNumberValidator.isReal(violation.getPlateNumber())) {
+            return new Outcome(insert.apply(violation), false);
+        }
+
+        Key key = new Key(plateNumberValidator.normalize(violation.getPlateNumber()), violation.getIntersectionId(), violation.getDirection(), violation.getViolationType());
+        LocalDateTime occurredAt = violation.getOccurredAt();
+        long now = System.currentTimeMillis();
+        long windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+        if (entries.size() >= maxKeys && !entries.containsKey(key)) {
+            // 键数量达到上限时不再登记新键，直接插入
+            return new Outcome(insert.apply(violation), false);
+        }
+        Entry entry = entries.compute(key, (k, existing) ->
+                existing != null && existing.accepts(occurredAt, now, windowMillis) ? existing : new Entry(k, now));
+
+        synchronized (entry) {
+            if (entry.violation == null) {
+                // 首条上报（或前一次写入失败）：插入新记录
+                Violation saved = insert.apply(violation);
+                entry.violation = saved;
+                entry.lastOccurredAt = saved.getOccurredAt();
+                entry.lastSeenAt = now;
+                publishOnCommit(entry);
+                return new Outcome(saved, false);
+            }
+            if (!entry.committed) {
+                // 首条记录的事务尚未提交，可能回滚：不合并，单独插入
+                return new Outcome(insert.apply(violation), false);
+            }
+
+            if (occurredAt.isAfter(entry.lastOccurredAt)) {
+                entry.lastOccurredAt = occurredAt;
+            }
+            entry.lastSeenAt = now;
+            if (entry.pendingDuplicates == 0) {
+                dirty.add(entry);
+            }
+            entry.pendingDuplicates++;
+            if (violation.getAiConfidence() != null && violation.getAiConfidence() > entry.bestConfidence) {
+                entry.bestConfidence = violation.getAiConfidence();
+                entry.bestImageUrl = violation.getImageUrl();
+            }
+            mergedCount.incrementAndGet();
+            return new Outcome(entry.violation, true);
+        }
+    }
+
+    /**
+     * 首条记录所在事务提交后开始接受合并；回滚时移除登记，后续上报重新插入
+     */
+    private void publishOnCommit(Entry entry) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            entry.committed = true;
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    entry.committed = true;
+                } else {
+                    entries.remove(entry.key, entry);
+                }
+            }
+        });
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMs);
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            flush();
+            evictExpired();
+        }
+    }
+
+    /**
+     * 把合并结果写回 MySQL，并清除对应的 Redis 详情缓存；写入失败时放回内存等下次重试。
+     * 记录已被删除（更新 0 行）的合并结果计入 lostMerges，并移除该键的登记
+     */
+    private void flush() {
+        List<Entry> batch = new ArrayList<>();
+        List<Object[]> args = new ArrayList<>();
+        Entry entry;
+        while ((entry = dirty.poll()) != null) {
+            synchronized (entry) {
+                if (entry.pendingDuplicates == 0) {
+                    continue;
+                }
+                float confidence = entry.bestConfidence;
+                args.add(new Object[]{entry.pendingDuplicates, confidence, entry.bestImageUrl, confidence,
+                        entry.violation.getId()});
+                batch.add(entry);
+                entry.pendingDuplicates = 0;
+                entry.bestConfidence = -1;
+                entry.bestImageUrl = null;
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        int[] updated;
+        try {
+            updated = jdbcTemplate.batchUpdate(MERGE_SQL, args);
+        } catch (Exception e) {
+            failedFlushCount.incrementAndGet();
+            log.error("❌ 重复违章合并写入失败, {} 条记录将在下次刷写时重试", batch.size(), e);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).restore(args.get(i));
+                dirty.add(batch.get(i));
+            }
+            return;
+        }
+
+        List<String> cacheKeys = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Entry flushed = batch.get(i);
+            // 驱动改写批量语句时返回 SUCCESS_NO_INFO（负数），只有 0 表示记录不存在
+            if (i < updated.length && updated[i] == 0) {
+                lostMergeCount.addAndGet((Integer) args.get(i)[0]);
+                entries.remove(flushed.key, flushed);
+                log.warn("⚠️ 违章记录 {} 已不存在, {} 次重复上报未能合并", flushed.violation.getId(), args.get(i)[0]);
+                continue;
+            }
+            flushedCount.incrementAndGet();
+            cacheKeys.add(VIOLATION_CACHE_PREFIX + flushed.violation.getId());
+        }
+        if (cacheKeys.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.delete(cacheKeys);
+        } catch (Exception e) {
+            log.warn("清除违章详情缓存失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 清除超过 window 没有新上报的键（未写回的合并结果仍在 dirty 队列中，不会丢失）
+     */
+    private void evictExpired() {
+        long expireBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(windowSeconds);
+        entries.values().removeIf(entry -> entry.lastSeenAt < expireBefore);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (flusherThread == null) {
+            return;
+        }
+        running = false;
+        flusherThread.interrupt();
+        flusherThread.join(TimeUnit.SECONDS.toMillis(10));
+        flush();
+    }
+
+    /**
+     * 获取去重运行指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("windowSeconds", windowSeconds);
+        stats.put("trackedKeys", entries.size());
+        stats.put("merged", mergedCount.get());
+        stats.put("flushedRecords", flushedCount.get());
+        stats.put("failedFlushes", failedFlushCount.get());
+        stats.put("lostMerges", lostMergeCount.get());
+        return stats;
+    }
+
+    /**
+     * 上报结果：duplicate 为 true 时 violation 是被合并的已有记录
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Outcome {
+        private final Violation violation;
+        private final boolean duplicate;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class Key {
+        final String plate;
+        final Long intersectionId;
+        final Violation.Direction direction;
+        final Violation.ViolationType type;
+    }
+
+    /**
+     * 一个键的首条记录和尚未写回的合并结果，由自身锁保护；
+     * 两个时间字段另外声明为 volatile，供 compute 和过期清理在不加锁的情况下读取；
+     * committed 由事务提交回调设置
+     */
+    private static final class Entry {
+        final Key key;
+        Violation violation;
+        volatile boolean committed;
+        volatile LocalDateTime lastOccurredAt;
+        volatile long lastSeenAt;
+        int pendingDuplicates;
+        float bestConfidence = -1;
+        String bestImageUrl;
+
+        Entry(Key key, long now) {
+            this.key = key;
+            this.lastSeenAt = now;
+        }
+
+        /**
+         * 首条正在写入，或发生时间与上一次上报相差不超过窗口
+         */
+        boolean accepts(LocalDateTime occurredAt, long now, long windowMillis) {
+            if (lastOccurredAt == null) {
+                return now - lastSeenAt <= windowMillis;
+            }
+            return now - lastSeenAt <= windowMillis
+                    && Math.abs(Duration.between(lastOccurredAt, occurredAt).toMillis()) <= windowMillis;
+        }
+
+        synchronized void restore(Object[] args) {
+            pendingDuplicates += (Integer) args[0];
+            float confidence = (Float) args[1];
+            if (confidence > bestConfidence) {
+                bestConfidence = confidence;
+                bestImageUrl = (String) args[2];
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.traffic.management.service;
+
+import com.traffic.management.entity.Violation;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * TOP 违规车牌的内存近似统计（Space-Saving 算法）
+ *
+ * 每个小时一个容量为 capacity 的 Space-Saving 摘要：车牌已被监控时计数加一，
+ * 未监控且摘要已满时替换计数最小的车牌，新车牌继承该最小值作为误差上界。
+ * 单个摘要内任一车牌的估计值与真实值之差不超过 该小时违章数 / capacity。
+ * 多个小时合并时把同一车牌的计数相加，某小时摘要中没有该车牌时，真实值最多为该小时摘要的最小计数，计入误差。
+ *
+ * 只保留最近 retention-hours 小时，启动时在后台线程从 MySQL 回填；
+ * 查询范围不是整点、超出保留范围或摘要未就绪时返回 null，调用方改用精确 GROUP BY 查询。
+ */
+@Slf4j
+@Service
+public class ViolationHeavyHitters {
+
+    private static final Violation.ViolationType[] TYPES = Violation.ViolationType.values();
+
+    private static final String BACKFILL_SQL = "SELECT DATE_FORMAT(occurred_at, '%Y-%m-%d %H:00:00'), plate_number, "
+            + "violation_type, COUNT(*) FROM violations WHERE occurred_at >= ? AND id <= ? "
+            + "GROUP BY DATE_FORMAT(occurred_at, '%Y-%m-%d %H:00:00'), plate_number, violation_type";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${violation.top-violators.sketch-enabled:true}")
+    private boolean enabled;
+
+    @Value("${violation.top-violators.sketch-capacity:500}")
+    private int capacity;
+
+    @Value("${violation.top-violators.retention-hours:768}")
+    private int retentionHours;
+
+    // 以下状态由 this 锁保护
+    private final TreeMap<LocalDateTime, Summary> buckets = new TreeMap<>();
+    private List<Violation> pending = new ArrayList<>();
+    private LocalDateTime coveredFrom;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread loader = new Thread(this::backfill, "violation-heavy-hitters");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 从 MySQL 回填保留范围内各小时的摘要（按 小时, 车牌, 类型 分组后带权写入）
+     */
+    private void backfill() {
+        long start = System.currentTimeMillis();
+        LocalDateTime from = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusHours(retentionHours);
+        TreeMap<LocalDateTime, Summary> loaded = new TreeMap<>();
+        long maxId;
+        try {
+            // 回填只读到当前最大ID，之后上报的违章由 pending 补上，避免重复计数
+            Long max = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM violations", Long.class);
+            maxId = max != null ? max : 0;
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(BACKFILL_SQL,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setTimestamp(1, Timestamp.valueOf(from));
+                statement.setLong(2, maxId);
+                statement.setFetchSize(Integer.MIN_VALUE);
+                return statement;
+            }, (ResultSet rs) -> {
+                LocalDateTime hour = LocalDateTime.parse(rs.getString(1).replace(' ', 'T').substring(0, 19));
+                Violation.ViolationType type = parseType(rs.getString(3));
+                if (rs.getString(2) != null && type != null) {
+                    loaded.computeIfAbsent(hour, h -> new Summary(capacity))
+                            .offer(normalize(rs.getString(2)), type, rs.getLong(4));
+                }
+            });
+        } catch (Exception e) {
+            log.error("❌ TOP 违规车牌摘要回填失败, 将使用精确查询", e);
+            synchronized (this) {
+                pending = null;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            buckets.putAll(loaded);
+            for (Violation violation : pending) {
+                if (violation.getId() == null || violation.getId() > maxId) {
+                    offer(violation);
+                }
+            }
+            pending = null;
+            coveredFrom = from;
+            evictExpired();
+        }
+        log.info("📊 TOP 违规车牌摘要回填完成: {} 个小时, 耗时 {}ms", loaded.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 新违章写入后计入所在小时的摘要：在事务中调用时推迟到提交之后，回滚的上报不计数
+     */
+    public void onReported(List<Violation> violations) {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    offerAll(violations);
+                }
+            });
+        } else {
+            offerAll(violations);
+        }
+    }
+
+    private synchronized void offerAll(List<Violation> violations) {
+        if (coveredFrom == null) {
+            if (pending != null) {
+                pending.addAll(violations);
+            }
+            return;
+        }
+        for (Violation violation : violations) {
+            offer(violation);
+        }
+        evictExpired();
+    }
+
+    /**
+     * [startTime, endTime] 内违规次数最多的 limit 个车牌（估计值降序），每项含 plateNumber / count / typeBreakdown，
+     * 列表后附带 maxError（所返回车牌中估计值的最大可能误差）。
+     * 范围边界不在整点、早于保留范围或摘要未就绪时返回 null
+     */
+    public synchronized TopResult top(int limit, LocalDateTime startTime, LocalDateTime endTime) {
+        if (coveredFrom == null || startTime == null || endTime == null) {
+            return null;
+        }
+        evictExpired();
+        // 统计接口的结束时间通常是 23:59:59.999999999，转为开区间后正好落在整点
+        LocalDateTime endExclusive = endTime.plusNanos(1);
+        if (startTime.isBefore(coveredFrom)
+                || !startTime.truncatedTo(ChronoUnit.HOURS).equals(startTime)
+                || !endExclusive.truncatedTo(ChronoUnit.HOURS).equals(endExclusive)) {
+            return null;
+        }
+
+        Map<String, Merged> merged = new HashMap<>();
+        long absentBound = 0;
+        for (Summary summary : buckets.subMap(startTime, endExclusive).values()) {
+            long floor = summary.floor();
+            absentBound += floor;
+            for (int i = 0; i < summary.size; i++) {
+                Counter counter = summary.heap[i];
+                Merged entry = merged.computeIfAbsent(counter.plate, plate -> new Merged());
+                entry.count += counter.count;
+                entry.error += counter.error;
+                entry.presentFloor += floor;
+                for (int t = 0; t < TYPES.length; t++) {
+                    entry.types[t] += counter.types[t];
+                }
+            }
+        }
+
+        List<Map.Entry<String, Merged>> sorted = new ArrayList<>(merged.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue().count, a.getValue().count));
+        List<Map<String, Object>> data = new ArrayList<>();
+        long maxError = 0;
+        for (Map.Entry<String, Merged> entry : sorted.subList(0, Math.min(limit, sorted.size()))) {
+            Merged value = entry.getValue();
+            Map<String, Long> typeBreakdown = new HashMap<>();
+            for (int t = 0; t < TYPES.length; t++) {
+                if (value.types[t] > 0) {
+                    typeBreakdown.put(TYPES[t].name(), value.types[t]);
+                }
+            }
+            Map<String, Object> violator = new HashMap<>();
+            violator.put("plateNumber", entry.getKey());
+            violator.put("count", value.count);
+            violator.put("typeBreakdown", typeBreakdown);
+            data.add(violator);
+            // 高估最多 error，低估最多为没有监控到该车牌的各小时最小计数之和
+            maxError = Math.max(maxError, Math.max(value.error, absentBound - value.presentFloor));
+        }
+        return new TopResult(data, maxError);
+    }
+
+    /**
+     * 获取摘要指标
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", coveredFrom != null);
+        stats.put("capacity", capacity);
+        stats.put("buckets", buckets.size());
+        long counters = 0;
+        for (Summary summary : buckets.values()) {
+            counters += summary.size;
+        }
+        stats.put("counters", counters);
+        return stats;
+    }
+
+    private void offer(Violation violation) {
+        if (violation.getOccurredAt() == null || violation.getPlateNumber() == null
+                || violation.getViolationType() == null) {
+            return;
+        }
+        LocalDateTime hour = violation.getOccurredAt().truncatedTo(ChronoUnit.HOURS);
+        if (coveredFrom != null && hour.isBefore(coveredFrom)) {
+            return;
+        }
+        buckets.computeIfAbsent(hour, h -> new Summary(capacity))
+                .offer(normalize(violation.getPlateNumber()), violation.getViolationType(), 1);
+    }
+
+    /**
+     * 丢弃超出保留范围的小时摘要
+     */
+    private void evictExpired() {
+        LocalDateTime horizon = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusHours(retentionHours);
+        if (coveredFrom.isBefore(horizon)) {
+            coveredFrom = horizon;
+        }
+        buckets.headMap(coveredFrom).clear();
+    }
+
+    private static Violation.ViolationType parseType(String type) {
+        try {
+            return Violation.ViolationType.valueOf(type);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    private static String normalize(String plateNumber) {
+        return plateNumber.trim().toUpperCase();
+    }
+
+    /**
+     * 摘要查询结果，maxError 为所返回车牌计数的最大可能误差
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class TopResult {
+        private final List<Map<String, Object>> data;
+        private final long maxError;
+    }
+
+    /**
+     * 单个小时的 Space-Saving 摘要：车牌到计数器的哈希表 + 按计数排序的最小堆
+     */
+    private static final class Summary {
+        final Counter[] heap;
+        final Map<String, Counter> counters = new HashMap<>();
+        int size;
+
+        Summary(int capacity) {
+            heap = new Counter[capacity];
+        }
+
+        void offer(String plate, Violation.ViolationType type, long weight) {
+            Counter counter = counters.get(plate);
+            if (counter == null && size < heap.length) {
+                // 摘要未满：新车牌追加到堆尾后上浮
+                counter = new Counter(plate, 0);
+                counter.count = weight;
+                counter.types[type.ordinal()] = weight;
+                counter.index = size;
+                heap[size++] = counter;
+                counters.put(plate, counter);
+                siftUp(counter.index);
+                return;
+            }
+            if (counter == null) {
+                // 摘要已满：替换计数最小的车牌，新车牌的真实计数可能被高估最多 min
+                counters.remove(heap[0].plate);
+                counter = new Counter(plate, heap[0].count);
+                counter.count = counter.error;
+                counter.index = 0;
+                heap[0] = counter;
+                counters.put(plate, counter);
+            }
+            // 计数只增不减，下沉即可保持最小堆
+            counter.count += weight;
+            counter.types[type.ordinal()] += weight;
+            siftDown(counter.index);
+        }
+
+        /**
+         * 摘要已满时，未被监控的车牌在该小时的计数不超过最小计数；未满时摘要是精确的
+         */
+        long floor() {
+            return size == heap.length ? heap[0].count : 0;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (heap[parent].count <= heap[i].count) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && heap[left].count < heap[smallest].count) {
+                    smallest = left;
+                }
+                if (right < size && heap[right].count < heap[smallest].count) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            Counter counter = heap[i];
+            heap[i] = heap[j];
+            heap[j] = counter;
+            heap[i].index = i;
+            heap[j].index = j;
+        }
+    }
+
+    private static final class Counter {
+        final String plate;
+        final long error;
+        final long[] types = new long[TYPES.length];
+        long count;
+        int index;
+
+        Counter(String plate, long error) {
+            this.plate = plate;
+            this.error = error;
+        }
+    }
+
+    private static final class Merged {
+        final long[] types = new long[TYPES.length];
+        long count;
+        long error;
+        long presentFloor;
+    }
+}
@@ -0,0 +1,127 @@
+package com.traffic.management.service;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 违章统计概览
+ *
+ * 当前窗口的各状态数量和前一个等长窗口的总数由 ViolationCubeService 一条分组语句同时算出，
+ * 结果按 (开始时间, 结束时间) 缓存，两端先对齐到整分钟（开始向下、结束向上取整），
+ * 以 now() 为结束时间的定时查询在同一分钟内命中同一缓存项。违章上报或处理提交后，只清除时间范围覆盖该违章发生时间的缓存项。
+ */
+@Service
+public class ViolationOverviewService {
+
+    @Autowired
+    private ViolationCubeService violationCubeService;
+
+    @Value("${violation.overview.cache-size:256}")
+    private int cacheSize;
+
+    // LRU 缓存，由 this 锁保护；version 每次失效加一，查询期间发生过失效的结果不写入缓存
+    private final LinkedHashMap<Range, Map<String, Object>> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long version;
+
+    /**
+     * 获取统计概览：total / pending / confirmed / rejected / growthRate（环比增长率，%）
+     */
+    public Map<String, Object> getOverview(LocalDateTime startTime, LocalDateTime endTime) {
+        startTime = startTime.truncatedTo(ChronoUnit.MINUTES);
+        // 结束时间是闭区间，向上取到该分钟的最后一纳秒，23:59:59.999999999 保持不变
+        endTime = endTime.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1).minusNanos(1);
+        Range range = new Range(startTime, endTime);
+        long versionAtStart;
+        synchronized (this) {
+            Map<String, Object> cached = cache.get(range);
+            if (cached != null) {
+                return new HashMap<>(cached);
+            }
+            versionAtStart = version;
+        }
+
+        // 与前一个相同时长的时间段对比
+        LocalDateTime prevStartTime = startTime.minus(Duration.between(startTime, endTime));
+        Map<Integer, Map<String, Long>> windows =
+                violationCubeService.countByStatusInWindows(prevStartTime, startTime, endTime);
+        Map<String, Long> current = windows.get(1);
+        long total = current.getOrDefault("TOTAL", 0L);
+        long prevTotal = windows.get(0).getOrDefault("TOTAL", 0L);
+
+        double growthRate = 0.0;
+        if (prevTotal > 0) {
+            growthRate = ((double) (total - prevTotal) / prevTotal) * 100;
+            growthRate = Math.round(growthRate * 100) / 100.0; // 保留两位小数
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("total", total);
+        result.put("pending", current.getOrDefault("PENDING", 0L));
+        result.put("confirmed", current.getOrDefault("CONFIRMED", 0L));
+        result.put("rejected", current.getOrDefault("REJECTED", 0L));
+        result.put("growthRate", growthRate);
+
+        synchronized (this) {
+            if (version != versionAtStart) {
+                return new HashMap<>(result);
+            }
+            cache.put(range, result);
+            if (cache.size() > cacheSize) {
+                Iterator<Range> eldest = cache.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return new HashMap<>(result);
+    }
+
+    /**
+     * 违章新增或状态变化后调用：事务提交后清除覆盖这些发生时间的缓存项
+     */
+    public void onChanged(Collection<LocalDateTime> occurredAt) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(occurredAt);
+                }
+            });
+        } else {
+            invalidate(occurredAt);
+        }
+    }
+
+    private synchronized void invalidate(Collection<LocalDateTime> occurredAt) {
+        version++;
+        cache.keySet().removeIf(range -> occurredAt.stream().anyMatch(range::covers));
+    }
+
+    /**
+     * 缓存键：概览的时间范围，覆盖范围包含前一个对比窗口
+     */
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class Range {
+        final LocalDateTime start;
+        final LocalDateTime end;
+
+        boolean covers(LocalDateTime time) {
+            LocalDateTime prevStart = start.minus(Duration.between(start, end));
+            return !time.isBefore(prevStart) && !time.isAfter(end);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.traffic.management.service;
+
+import com.traffic.management.entity.Violation;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 车牌号 N-gram 内存索引
+ *
+ * 车牌号去重后分配递增的车牌编号，每个长度为 1~3 的子串 (gram) 映射到包含它的车牌编号有序列表，
+ * 每个车牌编号再映射到该车牌的违章ID有序列表。子串查询：长度不超过 3 时直接取对应 gram 的列表；
+ * 更长时对查询串的所有 trigram 列表求交集，再用 String.contains 校验候选车牌，结果是精确的。
+ * 与 MySQL 的 LIKE（utf8mb4_unicode_ci）一致，车牌统一按大写比较。
+ *
+ * 启动时在后台线程从 MySQL 重建，重建期间新写入的违章先暂存，重建完成后合并；
+ * 新违章在事务提交后才加入索引，回滚的违章不会留在索引中；
+ * 未就绪时查询方法返回 null / -1，调用方回退到 LIKE 查询。
+ */
+@Slf4j
+@Service
+public class ViolationPlateIndex {
+
+    private static final int MAX_GRAM = 3;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${violation.plate-index.enabled:true}")
+    private boolean enabled;
+
+    // 以下状态由 this 锁保护
+    private Index index;
+    private List<Object[]> pending = new ArrayList<>();
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread loader = new Thread(this::rebuild, "violation-plate-index");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 从 MySQL 全量重建索引（按 id 顺序流式读取）
+     */
+    private void rebuild() {
+        long start = System.currentTimeMillis();
+        Index rebuilt = new Index();
+        try {
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                        "SELECT id, plate_number FROM violations ORDER BY id",
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(Integer.MIN_VALUE);
+                return statement;
+            }, (ResultSet rs) -> rebuilt.add(rs.getLong(1), rs.getString(2)));
+        } catch (Exception e) {
+            log.error("❌ 车牌索引重建失败, 车牌搜索将使用 LIKE 查询", e);
+            synchronized (this) {
+                pending = null;
+            }
+            return;
+        }
+
+        synchronized (this) {
+            for (Object[] created : pending) {
+                rebuilt.add((Long) created[0], (String) created[1]);
+            }
+            pending = null;
+            index = rebuilt;
+        }
+        log.info("🔎 车牌索引重建完成: {} 条违章, {} 个车牌, {} 个 gram, 耗时 {}ms",
+                rebuilt.violationCount, rebuilt.plates.size(), rebuilt.grams.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 新违章写入后加入索引：在事务中调用时推迟到提交之后
+     */
+    public void onReported(List<Violation> violations) {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    addAll(violations);
+                }
+            });
+        } else {
+            addAll(violations);
+        }
+    }
+
+    private synchronized void addAll(List<Violation> violations) {
+        for (Violation violation : violations) {
+            add(violation.getId(), violation.getPlateNumber());
+        }
+    }
+
+    private void add(Long violationId, String plateNumber) {
+        if (violationId == null || plateNumber == null) {
+            return;
+        }
+        if (index == null) {
+            if (pending != null) {
+                pending.add(new Object[]{violationId, plateNumber});
+            }
+            return;
+        }
+        index.add(violationId, plateNumber);
+    }
+
+    /**
+     * 车牌包含 keyword 的违章ID（升序）；索引未就绪或结果超过 limit 条时返回 null
+     */
+    public synchronized long[] search(String keyword, int limit) {
+        if (index == null) {
+            return null;
+        }
+        int[] plateIds = index.matchPlates(normalize(keyword));
+        long total = 0;
+        for (int plateId : plateIds) {
+            total += index.violations.get(plateId).size;
+            if (total > limit) {
+                return null;
+            }
+        }
+        long[] ids = new long[(int) total];
+        int offset = 0;
+        for (int plateId : plateIds) {
+            LongPosting posting = index.violations.get(plateId);
+            System.arraycopy(posting.ids, 0, ids, offset, posting.size);
+            offset += posting.size;
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * 车牌包含 keyword 的违章数；索引未就绪时返回 -1
+     */
+    public synchronized long count(String keyword) {
+        if (index == null) {
+            return -1;
+        }
+        long total = 0;
+        for (int plateId : index.matchPlates(normalize(keyword))) {
+            total += index.violations.get(plateId).size;
+        }
+        return total;
+    }
+
+    /**
+     * 获取索引指标
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", index != null);
+        if (index != null) {
+            stats.put("violations", index.violationCount);
+            stats.put("plates", index.plates.size());
+            stats.put("grams", index.grams.size());
+        }
+        return stats;
+    }
+
+    private static String normalize(String plateNumber) {
+        return plateNumber.trim().toUpperCase();
+    }
+
+    /**
+     * 索引数据：车牌字典 + gram 倒排表 + 每个车牌的违章ID列表
+     */
+    private static final class Index {
+        final List<String> plates = new ArrayList<>();
+        final Map<String, Integer> plateIds = new HashMap<>();
+        final List<LongPosting> violations = new ArrayList<>();
+        final Map<String, IntPosting> grams = new HashMap<>();
+        long violationCount;
+
+        void add(long violationId, String plateNumber) {
+            String plate = normalize(plateNumber);
+            Integer plateId = plateIds.get(plate);
+            if (plateId == null) {
+                // 车牌编号递增分配，gram 列表只追加即保持有序
+                plateId = plates.size();
+                plates.add(plate);
+                plateIds.put(plate, plateId);
+                violations.add(new LongPosting());
+                for (int n = 1; n <= MAX_GRAM; n++) {
+                    for (int i = 0; i + n <= plate.length(); i++) {
+                        IntPosting posting = grams.computeIfAbsent(plate.substring(i, i + n), gram -> new IntPosting());
+                        if (posting.size == 0 || posting.ids[posting.size - 1] != plateId) {
+                            posting.append(plateId);
+                        }
+                    }
+                }
+            }
+            if (violations.get(plateId).insert(violationId)) {
+                violationCount++;
+            }
+        }
+
+        /**
+         * 包含 keyword 的车牌编号（升序）
+         */
+        int[] matchPlates(String keyword) {
+            if (keyword.isEmpty()) {
+                return new int[0];
+            }
+            if (keyword.length() <= MAX_GRAM) {
+                IntPosting posting = grams.get(keyword);
+                return posting != null ? Arrays.copyOf(posting.ids, posting.size) : new int[0];
+            }
+
+            // 从最短的 trigram 列表开始求交集
+            List<IntPosting> postings = new ArrayList<>();
+            for (int i = 0; i + MAX_GRAM <= keyword.length(); i++) {
+                IntPosting posting = grams.get(keyword.substring(i, i + MAX_GRAM));
+                if (posting == null) {
+                    return new int[0];
+                }
+                postings.add(posting);
+            }
+            postings.sort((a, b) -> Integer.compare(a.size, b.size));
+            int[] candidates = Arrays.copyOf(postings.get(0).ids, postings.get(0).size);
+            int count = candidates.length;
+            for (int p = 1; p < postings.size() && count > 0; p++) {
+                count = intersect(candidates, count, postings.get(p));
+            }
+
+            // 所有 trigram 都出现不代表整个串连续出现，逐个校验
+            int matched = 0;
+            for (int i = 0; i < count; i++) {
+                if (plates.get(candidates[i]).contains(keyword)) {
+                    candidates[matched++] = candidates[i];
+                }
+            }
+            return Arrays.copyOf(candidates, matched);
+        }
+
+        /**
+         * 原地求交集，返回交集长度
+         */
+        private static int intersect(int[] candidates, int count, IntPosting posting) {
+            int kept = 0;
+            int j = 0;
+            for (int i = 0; i < count && j < posting.size; i++) {
+                int id = candidates[i];
+                while (j < posting.size && posting.ids[j] < id) {
+                    j++;
+                }
+                if (j < posting.size && posting.ids[j] == id) {
+                    candidates[kept++] = id;
+                }
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * 只追加的有序 int 列表
+     */
+    private static final class IntPosting {
+        int[] ids = new int[4];
+        int size;
+
+        void append(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * 有序 long 列表，违章ID一般递增到达，乱序时二分插入，重复ID忽略
+     */
+    private static final class LongPosting {
+        long[] ids = new long[2];
+        int size;
+
+        boolean insert(long id) {
+            int position = size;
+            if (size > 0 && ids[size - 1] >= id) {
+                int found = Arrays.binarySearch(ids, 0, size, id);
+                if (found >= 0) {
+                    return false;
+                }
+                position = -found - 1;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+            return true;
+        }
+    }
+}
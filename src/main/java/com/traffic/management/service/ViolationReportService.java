@@ -5,7 +5,6 @@ import com.lowagie.text.pdf.BaseFont;
 import com.lowagie.text.pdf.PdfPCell;
 import com.lowagie.text.pdf.PdfPTable;
 import com.lowagie.text.pdf.PdfWriter;
-import com.traffic.management.repository.ViolationRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -29,7 +28,7 @@ import java.util.Map;
 public class ViolationReportService {
 
     @Autowired
-    private ViolationRepository violationRepository;
+    private ViolationCubeService violationCubeService;
 
     @Autowired
     private ViolationService violationService;
@@ -239,8 +238,8 @@ public class ViolationReportService {
     private void addTypeDistributionSection(Document document, LocalDateTime startTime, LocalDateTime endTime) throws DocumentException {
         addSectionTitle(document, "2. Violation Types");
 
-        // 直接从 repository 查询，支持可选日期
-        List<Object[]> results = violationRepository.countByViolationTypeGrouped(startTime, endTime);
+        // 从违章小时汇总查询
+        List<Object[]> results = violationCubeService.countByType(startTime, endTime);
 
         if (results.isEmpty()) {
             document.add(new Paragraph("  No violation data available", normalFont));
@@ -371,7 +370,7 @@ public class ViolationReportService {
         addSectionTitle(document, "5. By Intersection");
 
         // 按路口ID统计
-        List<Object[]> results = violationRepository.countByIntersectionGrouped(startTime, endTime);
+        List<Object[]> results = violationCubeService.countByIntersection(startTime, endTime);
 
         if (results == null || results.isEmpty()) {
             document.add(new Paragraph("  No data available", normalFont));
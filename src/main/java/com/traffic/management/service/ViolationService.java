@@ -1,40 +1,144 @@
 package com.traffic.management.service;
 
 import com.traffic.management.entity.Violation;
+import com.traffic.management.exception.BusinessException;
+import com.traffic.management.exception.ErrorCode;
+import com.traffic.management.repository.IntersectionRepository;
 import com.traffic.management.repository.ViolationRepository;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
 
+@Slf4j
 @Service
 public class ViolationService {
 
     @Autowired
     private ViolationRepository violationRepository;
 
+    @Autowired
+    private IntersectionRepository intersectionRepository;
+
+    @Autowired
+    private ViolationCountService violationCountService;
+
+    @Autowired
+    private ViolationPlateIndex violationPlateIndex;
+
+    @Autowired
+    private PlateFuzzyMatcher plateFuzzyMatcher;
+
+    @Autowired
+    private ViolationCubeService violationCubeService;
+
+    @Autowired
+    private ViolationOverviewService violationOverviewService;
+
+    @Autowired
+    private ViolationHeavyHitters violationHeavyHitters;
+
+    @Autowired
+    private DistinctVehicleService distinctVehicleService;
+
+    @Autowired
+    private ViolationDeduplicator violationDeduplicator;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Value("${violation.report.batch-max-size:500}")
+    private int batchMaxSize;
+
+    @Value("${violation.plate-index.max-candidates:5000}")
+    private int plateIndexMaxCandidates;
+
+    @Value("${violation.plate-fuzzy.consolidate-distance:0.5}")
+    private double plateConsolidateDistance;
+
     private static final String VIOLATION_CACHE_PREFIX = "violation:";
     private static final String VIOLATIONS_LIST_KEY = "violations:list";
     private static final String VIOLATION_COUNT_KEY = "violation:total:today";
     private static final long CACHE_DURATION_MINUTES = 30;
 
+    private static final String INSERT_PREFIX = "INSERT INTO violations (intersection_id, direction, turn_type, "
+            + "plate_number, vehicle_type, violation_type, image_url, ai_confidence, occurred_at, status, "
+            + "appeal_status, created_at, updated_at) VALUES ";
+    private static final String INSERT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final int INSERT_CHUNK_SIZE = 200;
+
     /**
      * 上报违章：同时写入 MySQL（持久化）和 Redis（实时查询）
      */
     @Transactional
     public Violation reportViolation(Map<String, Object> violationData) {
-        // 1. 构建 Violation 对象
+        return reportViolationDeduplicated(violationData).getViolation();
+    }
+
+    /**
+     * 上报违章并去重：去重窗口内同一车辆在同一路口、方向的同类违章合并到已有记录，不再插入新记录
+     */
+    @Transactional
+    public ViolationDeduplicator.Outcome reportViolationDeduplicated(Map<String, Object> violationData) {
+        return violationDeduplicator.report(buildViolation(violationData), this::saveReported);
+    }
+
+    /**
+     * 保存一条新违章并更新缓存和各项统计
+     */
+    private Violation saveReported(Violation violation) {
+        // 写入 MySQL（持久化保存）；小时汇总的增量在提交前写入，热点汇总行只在提交前短暂加锁
+        Violation savedViolation = violationRepository.save(violation);
+        violationCubeService.onReported(List.of(savedViolation));
+        violationOverviewService.onChanged(List.of(savedViolation.getOccurredAt()));
+
+        // 同时写入 Redis（用于实时查询和缓存）
+        String cacheKey = VIOLATION_CACHE_PREFIX + savedViolation.getId();
+        redisTemplate.opsForHash().putAll(cacheKey, convertToMap(savedViolation));
+        redisTemplate.expire(cacheKey, Duration.ofMinutes(CACHE_DURATION_MINUTES));
+
+        // 增加违章计数（实时统计）
+        redisTemplate.opsForValue().increment(VIOLATION_COUNT_KEY);
+
+        // 添加到违章列表（用于快速列表查询）
+        redisTemplate.opsForList().leftPush(VIOLATIONS_LIST_KEY, convertToMap(savedViolation));
+        redisTemplate.expire(VIOLATIONS_LIST_KEY, Duration.ofDays(7));
+
+        violationCountService.onReported(List.of(savedViolation));
+        violationHeavyHitters.onReported(List.of(savedViolation));
+        distinctVehicleService.onReported(List.of(savedViolation));
+        violationPlateIndex.onReported(List.of(savedViolation));
+        plateFuzzyMatcher.add(savedViolation.getPlateNumber());
+        return savedViolation;
+    }
+
+    /**
+     * 把上报数据解析为 Violation 对象（未保存），单条上报和批量上报共用
+     */
+    private Violation buildViolation(Map<String, Object> violationData) {
+        // 1. 解析路口ID
         Long intersectionId;
         Object idValue = violationData.get("intersectionId");
 
@@ -121,7 +225,7 @@ public class ViolationService {
             vehicleType = violationData.get("vehicleType").toString();
         }
 
-        Violation violation = Violation.builder()
+        return Violation.builder()
                 .intersectionId(intersectionId)
                 .direction(direction)
                 .turnType(turnType)
@@ -130,27 +234,194 @@ public class ViolationService {
                 .vehicleType(vehicleType)
                 .imageUrl(imageUrl)
                 .aiConfidence(aiConfidence)
+                .duplicateCount(0)
                 .occurredAt(LocalDateTime.now())
                 .status(Violation.ViolationStatus.PENDING)
                 .appealStatus(Violation.AppealStatus.NO_APPEAL)
                 .build();
+    }
 
-        // 6. 写入 MySQL（持久化保存）
-        Violation savedViolation = violationRepository.save(violation);
+    /**
+     * 批量上报违章
+     *
+     * 逐条校验后，合法记录在同一个事务中用多行 INSERT 写入 MySQL（每 INSERT_CHUNK_SIZE 行一条语句），
+     * 缓存、计数和列表更新通过 Redis 管道一次往返完成。返回与请求顺序一致的逐条结果，
+     * 校验失败的条目不影响其他条目。
+     */
+    @Transactional
+    public List<Map<String, Object>> reportViolations(List<Map<String, Object>> items) {
+        if (items == null || items.isEmpty()) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR, "违章列表不能为空");
+        }
+        if (items.size() > batchMaxSize) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR, "单次最多上报 " + batchMaxSize + " 条违章");
+        }
 
-        // 7. 同时写入 Redis（用于实时查询和缓存）
-        String cacheKey = VIOLATION_CACHE_PREFIX + savedViolation.getId();
-        redisTemplate.opsForHash().putAll(cacheKey, convertToMap(savedViolation));
-        redisTemplate.expire(cacheKey, Duration.ofMinutes(CACHE_DURATION_MINUTES));
+        // 1. 逐条解析和校验
+        Violation[] parsed = new Violation[items.size()];
+        String[] errors = new String[items.size()];
+        Set<Long> intersectionIds = new HashSet<>();
+        for (int i = 0; i < items.size(); i++) {
+            Map<String, Object> item = items.get(i);
+            if (item == null || item.get("intersectionId") == null) {
+                errors[i] = "缺少 intersectionId";
+                continue;
+            }
+            try {
+                Violation violation = buildViolation(item);
+                errors[i] = validate(violation);
+                if (errors[i] == null) {
+                    parsed[i] = violation;
+                    intersectionIds.add(violation.getIntersectionId());
+                }
+            } catch (RuntimeException e) {
+                errors[i] = "数据格式错误: " + e.getMessage();
+            }
+        }
 
-        // 8. 增加违章计数（实时统计）
-        redisTemplate.opsForValue().increment(VIOLATION_COUNT_KEY);
+        // 2. 一次查询校验路口是否存在，避免外键错误导致整批回滚
+        Set<Long> knownIntersections = new HashSet<>();
+        if (!intersectionIds.isEmpty()) {
+            intersectionRepository.findAllById(intersectionIds)
+                    .forEach(intersection -> knownIntersections.add(intersection.getId()));
+        }
+        List<Violation> valid = new ArrayList<>();
+        for (int i = 0; i < parsed.length; i++) {
+            if (parsed[i] == null) {
+                continue;
+            }
+            if (!knownIntersections.contains(parsed[i].getIntersectionId())) {
+                errors[i] = "路口不存在: " + parsed[i].getIntersectionId();
+                parsed[i] = null;
+                continue;
+            }
+            valid.add(parsed[i]);
+        }
 
-        // 9. 添加到违章列表（用于快速列表查询）
-        redisTemplate.opsForList().leftPush(VIOLATIONS_LIST_KEY, convertToMap(savedViolation));
-        redisTemplate.expire(VIOLATIONS_LIST_KEY, Duration.ofDays(7));
+        // 3. 批量写入 MySQL，任一语句失败则整批回滚
+        for (int from = 0; from < valid.size(); from += INSERT_CHUNK_SIZE) {
+            insertChunk(valid.subList(from, Math.min(from + INSERT_CHUNK_SIZE, valid.size())));
+        }
+        if (!valid.isEmpty()) {
+            violationCubeService.onReported(valid);
+            violationOverviewService.onChanged(valid.stream().map(Violation::getOccurredAt).toList());
+        }
 
-        return savedViolation;
+        // 4. Redis 管道：缓存、计数和列表一次往返
+        if (!valid.isEmpty()) {
+            cacheReported(valid);
+            violationCountService.onReported(valid);
+            violationHeavyHitters.onReported(valid);
+            distinctVehicleService.onReported(valid);
+            violationPlateIndex.onReported(valid);
+            for (Violation violation : valid) {
+                plateFuzzyMatcher.add(violation.getPlateNumber());
+            }
+        }
+
+        List<Map<String, Object>> results = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("index", i);
+            result.put("success", parsed[i] != null);
+            if (parsed[i] != null) {
+                result.put("id", parsed[i].getId());
+            } else {
+                result.put("error", errors[i]);
+            }
+            results.add(result);
+        }
+        log.info("批量上报违章: 共 {} 条, 成功 {} 条", items.size(), valid.size());
+        return results;
+    }
+
+    /**
+     * 校验会导致数据库写入失败的字段，返回错误信息，合法时返回 null
+     */
+    private String validate(Violation violation) {
+        if (violation.getPlateNumber().isBlank() || violation.getPlateNumber().length() > 20) {
+            return "车牌号为空或超过 20 个字符";
+        }
+        if (violation.getImageUrl().length() > 255) {
+            return "图片URL超过 255 个字符";
+        }
+        if (violation.getVehicleType().length() > 50) {
+            return "车辆类型超过 50 个字符";
+        }
+        if (violation.getAiConfidence() < 0 || violation.getAiConfidence() > 1) {
+            return "AI 置信度必须在 0 到 1 之间";
+        }
+        return null;
+    }
+
+    /**
+     * 一条多行 INSERT 写入一组违章，并回填自增ID
+     */
+    private void insertChunk(List<Violation> chunk) {
+        LocalDateTime now = LocalDateTime.now();
+        Timestamp timestamp = Timestamp.valueOf(now);
+
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + chunk.size() * (INSERT_ROW.length() + 1));
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < chunk.size(); i++) {
+            sql.append(i == 0 ? "" : ",").append(INSERT_ROW);
+        }
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+            int p = 1;
+            for (Violation v : chunk) {
+                statement.setLong(p++, v.getIntersectionId());
+                statement.setString(p++, v.getDirection() != null ? v.getDirection().name() : null);
+                statement.setString(p++, v.getTurnType() != null ? v.getTurnType().name() : null);
+                statement.setString(p++, v.getPlateNumber());
+                statement.setString(p++, v.getVehicleType());
+                statement.setString(p++, v.getViolationType().name());
+                statement.setString(p++, v.getImageUrl());
+                statement.setFloat(p++, v.getAiConfidence());
+                statement.setTimestamp(p++, Timestamp.valueOf(v.getOccurredAt()));
+                statement.setString(p++, v.getStatus().name());
+                statement.setString(p++, v.getAppealStatus().name());
+                statement.setTimestamp(p++, timestamp);
+                statement.setTimestamp(p++, timestamp);
+            }
+            return statement;
+        }, keyHolder);
+
+        // MySQL 对多行 INSERT 按行顺序返回连续的自增ID
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < chunk.size(); i++) {
+            Violation v = chunk.get(i);
+            v.setId(((Number) keys.get(i).values().iterator().next()).longValue());
+            v.setCreatedAt(now);
+            v.setUpdatedAt(now);
+        }
+    }
+
+    /**
+     * 通过 Redis 管道写入单条缓存、计数和违章列表
+     */
+    private void cacheReported(List<Violation> violations) {
+        List<Object> listEntries = new ArrayList<>(violations.size());
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                for (Violation violation : violations) {
+                    Map<String, Object> map = convertToMap(violation);
+                    String cacheKey = VIOLATION_CACHE_PREFIX + violation.getId();
+                    ops.opsForHash().putAll(cacheKey, map);
+                    ops.expire(cacheKey, Duration.ofMinutes(CACHE_DURATION_MINUTES));
+                    listEntries.add(map);
+                }
+                ops.opsForValue().increment(VIOLATION_COUNT_KEY, violations.size());
+                ops.opsForList().leftPushAll(VIOLATIONS_LIST_KEY, listEntries);
+                ops.expire(VIOLATIONS_LIST_KEY, Duration.ofDays(7));
+                return null;
+            }
+        });
     }
 
     /**
@@ -191,7 +462,21 @@ public class ViolationService {
         Pageable pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "occurredAt"));
         List<Violation> violations;
 
-        if (type != null && !type.isEmpty()) {
+        // 有车牌关键字时优先用车牌索引得到候选ID，避免 LIKE '%x%' 全表扫描
+        List<Long> candidates = search != null && !search.isEmpty() ? plateCandidates(search) : null;
+
+        if (candidates != null) {
+            Violation.ViolationType violationType = null;
+            if (type != null && !type.isEmpty()) {
+                try {
+                    violationType = Violation.ViolationType.valueOf(type);
+                } catch (IllegalArgumentException e) {
+                    return new ArrayList<>();
+                }
+            }
+            violations = candidates.isEmpty() ? new ArrayList<>()
+                    : violationRepository.findByIdsOrdered(candidates, violationType, PageRequest.of(page, size));
+        } else if (type != null && !type.isEmpty()) {
             // 按类型筛选
             try {
                 Violation.ViolationType violationType = Violation.ViolationType.valueOf(type);
@@ -223,6 +508,75 @@ public class ViolationService {
         return result;
     }
 
+    /**
+     * 键集分页查询违章列表（按 occurredAt, id 倒序）
+     *
+     * cursor 为上一页返回的 nextCursor，为空时返回第一页；无论翻到第几页都只从游标位置
+     * 顺着索引读取 size + 1 行，不产生 OFFSET 扫描。返回 violations 和 nextCursor（没有下一页时为 null）。
+     */
+    public Map<String, Object> getViolationsByCursor(String cursor, int size, String search, String type) {
+        Violation.ViolationType violationType = null;
+        if (type != null && !type.isEmpty()) {
+            try {
+                violationType = Violation.ViolationType.valueOf(type);
+            } catch (IllegalArgumentException e) {
+                // 类型无效，返回空列表
+                Map<String, Object> empty = new HashMap<>();
+                empty.put("violations", new ArrayList<>());
+                empty.put("nextCursor", null);
+                return empty;
+            }
+        }
+        String plate = search != null && !search.isEmpty() ? search : null;
+
+        // 多取一行用于判断是否还有下一页
+        Pageable limit = PageRequest.of(0, size + 1);
+        PageCursor position = cursor == null || cursor.isEmpty() ? null : PageCursor.decode(cursor);
+        List<Long> candidates = plate != null ? plateCandidates(plate) : null;
+        List<Violation> violations;
+        if (candidates != null && candidates.isEmpty()) {
+            violations = new ArrayList<>();
+        } else if (candidates != null) {
+            violations = position == null
+                    ? violationRepository.findByIdsOrdered(candidates, violationType, limit)
+                    : violationRepository.findPageBeforeByIds(position.occurredAt, position.id, candidates, violationType, limit);
+        } else if (position == null) {
+            violations = violationRepository.findFirstPage(violationType, plate, limit);
+        } else {
+            violations = violationRepository.findPageBefore(
+                    position.occurredAt, position.id, violationType, plate, limit);
+        }
+
+        boolean hasMore = violations.size() > size;
+        if (hasMore) {
+            violations = violations.subList(0, size);
+        }
+        List<Map<String, Object>> items = new ArrayList<>(violations.size());
+        for (Violation v : violations) {
+            items.add(convertToMap(v));
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("violations", items);
+        result.put("nextCursor", hasMore ? PageCursor.encode(violations.get(violations.size() - 1)) : null);
+        return result;
+    }
+
+    /**
+     * 车牌索引中包含关键字的违章ID；索引未就绪或候选过多时返回 null，由调用方使用 LIKE 查询
+     */
+    private List<Long> plateCandidates(String search) {
+        long[] ids = violationPlateIndex.search(search, plateIndexMaxCandidates);
+        if (ids == null) {
+            return null;
+        }
+        List<Long> candidates = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            candidates.add(id);
+        }
+        return candidates;
+    }
+
     /**
      * 获取单条违章详情：优先从 Redis，然后从 MySQL
      */
@@ -260,10 +614,12 @@ public class ViolationService {
     public void processViolation(String violationId, Map<String, Object> processInfo) {
         try {
             Long id = Long.parseLong(violationId);
-            Optional<Violation> violationOpt = violationRepository.findById(id);
+            // 加行锁读取：并发处理同一违章时依次执行，旧状态不会被读到两次，汇总表计数不会重复迁移
+            Optional<Violation> violationOpt = violationRepository.findByIdForUpdate(id);
 
             if (violationOpt.isPresent()) {
                 Violation violation = violationOpt.get();
+                Violation.ViolationStatus previousStatus = violation.getStatus();
 
                 // 1. 更新 Violation 对象
                 // 根据前端传来的 status 设置状态
@@ -291,6 +647,10 @@ public class ViolationService {
 
                 // 2. 写入 MySQL（更新持久化数据）
                 Violation updated = violationRepository.save(violation);
+                violationCubeService.onStatusChanged(updated, previousStatus);
+                if (updated.getStatus() != previousStatus) {
+                    violationOverviewService.onChanged(List.of(updated.getOccurredAt()));
+                }
 
                 // 3. 改进的缓存更新策略：先删除旧缓存，再写入新数据（保证一致性）
                 String cacheKey = VIOLATION_CACHE_PREFIX + id;
@@ -319,38 +679,17 @@ public class ViolationService {
     }
 
     /**
-     * 获取带筛选条件的违章总数：直接查询数据库
+     * 获取带筛选条件的违章总数：COUNT 查询 + 短时缓存，见 ViolationCountService
      */
     public Long getViolationCountWithFilter(String search, String type) {
-        // 如果没有筛选条件，直接查询所有记录数
-        if ((search == null || search.isEmpty()) && (type == null || type.isEmpty())) {
-            return violationRepository.count();
-        }
+        return violationCountService.count(search, type).getCount();
+    }
 
-        // 如果有筛选条件，需要根据条件统计
-        try {
-            if (search != null && !search.isEmpty() && type != null && !type.isEmpty()) {
-                // 同时有车牌和类型筛选
-                Violation.ViolationType violationType = Violation.ViolationType.valueOf(type);
-                return (long) violationRepository.findByViolationTypeAndPlateNumberContaining(
-                        violationType, search, org.springframework.data.domain.Pageable.unpaged()
-                ).getTotalElements();
-            } else if (search != null && !search.isEmpty()) {
-                // 仅车牌筛选
-                return (long) violationRepository.findByPlateNumberContaining(
-                        search, org.springframework.data.domain.Pageable.unpaged()
-                ).getTotalElements();
-            } else {
-                // 仅类型筛选
-                Violation.ViolationType violationType = Violation.ViolationType.valueOf(type);
-                return (long) violationRepository.findByViolationType(
-                        violationType, org.springframework.data.domain.Pageable.unpaged()
-                ).getTotalElements();
-            }
-        } catch (IllegalArgumentException e) {
-            // 如果类型无效，返回所有记录数
-            return violationRepository.count();
-        }
+    /**
+     * 获取带筛选条件的违章总数，结果集很大时可能是近似值
+     */
+    public ViolationCountService.Total getViolationTotal(String search, String type) {
+        return violationCountService.count(search, type);
     }
 
     /**
@@ -381,6 +720,7 @@ public class ViolationService {
         map.put("violationType", violation.getViolationType() != null ? violation.getViolationType().toString() : null);
         map.put("imageUrl", violation.getImageUrl());
         map.put("aiConfidence", violation.getAiConfidence());
+        map.put("duplicateCount", violation.getDuplicateCount());
         map.put("occurredAt", violation.getOccurredAt() != null ? violation.getOccurredAt().toString() : null);
         map.put("status", violation.getStatus() != null ? violation.getStatus().toString() : null);
         map.put("processedBy", violation.getProcessedBy());
@@ -399,41 +739,14 @@ public class ViolationService {
      * 获取统计概览（支持时间范围）
      */
     public Map<String, Object> getStatisticsOverview(LocalDateTime startTime, LocalDateTime endTime) {
-        // 计算当前时间段的统计
-        long total = violationRepository.countByOccurredAtBetween(startTime, endTime);
-        long pending = violationRepository.countByStatusAndOccurredAtBetween(
-                Violation.ViolationStatus.PENDING, startTime, endTime);
-        long confirmed = violationRepository.countByStatusAndOccurredAtBetween(
-                Violation.ViolationStatus.CONFIRMED, startTime, endTime);
-        long rejected = violationRepository.countByStatusAndOccurredAtBetween(
-                Violation.ViolationStatus.REJECTED, startTime, endTime);
-
-        // 计算环比增长率（与前一个相同时长的时间段对比）
-        Duration duration = Duration.between(startTime, endTime);
-        LocalDateTime prevStartTime = startTime.minus(duration);
-        LocalDateTime prevEndTime = startTime;
-        long prevTotal = violationRepository.countByOccurredAtBetween(prevStartTime, prevEndTime);
-
-        double growthRate = 0.0;
-        if (prevTotal > 0) {
-            growthRate = ((double) (total - prevTotal) / prevTotal) * 100;
-            growthRate = Math.round(growthRate * 100) / 100.0; // 保留两位小数
-        }
-
-        Map<String, Object> result = new HashMap<>();
-        result.put("total", total);
-        result.put("pending", pending);
-        result.put("confirmed", confirmed);
-        result.put("rejected", rejected);
-        result.put("growthRate", growthRate);
-        return result;
+        return violationOverviewService.getOverview(startTime, endTime);
     }
 
     /**
      * 按违规类型统计
      */
     public Map<String, Object> getStatisticsByType(LocalDateTime startTime, LocalDateTime endTime) {
-        List<Object[]> results = violationRepository.countByViolationTypeGrouped(startTime, endTime);
+        List<Object[]> results = violationCubeService.countByType(startTime, endTime);
 
         List<Map<String, Object>> data = new ArrayList<>();
         for (Object[] row : results) {
@@ -456,9 +769,9 @@ public class ViolationService {
         List<Object[]> results;
 
         if ("hour".equalsIgnoreCase(granularity)) {
-            results = violationRepository.countByHourGrouped(startTime, endTime);
+            results = violationCubeService.countByTime(true, startTime, endTime);
         } else {
-            results = violationRepository.countByDayGrouped(startTime, endTime);
+            results = violationCubeService.countByTime(false, startTime, endTime);
         }
 
         List<Map<String, Object>> data = new ArrayList<>();
@@ -475,11 +788,34 @@ public class ViolationService {
         return result;
     }
 
+    /**
+     * 获取去重车辆数：intersectionIds 为空时统计全部路口，metric 为 violation（违章车辆）或 detection（检测到的车辆）
+     */
+    public Map<String, Object> getDistinctVehicles(String metric, List<Long> intersectionIds,
+                                                   LocalDateTime startTime, LocalDateTime endTime) {
+        List<Long> ids = intersectionIds;
+        if (ids == null || ids.isEmpty()) {
+            ids = new ArrayList<>();
+            for (var intersection : intersectionRepository.findAll()) {
+                ids.add(intersection.getId());
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("metric", metric);
+        result.put("intersectionIds", ids);
+        result.put("startTime", startTime);
+        result.put("endTime", endTime);
+        result.put("distinctVehicles", distinctVehicleService.countDistinct(metric, ids, startTime, endTime));
+        result.put("approximate", true);
+        return result;
+    }
+
     /**
      * 获取热力图数据（小时 × 星期）
      */
     public Map<String, Object> getStatisticsHeatmap(LocalDateTime startTime, LocalDateTime endTime) {
-        List<Object[]> results = violationRepository.getHeatmapData(startTime, endTime);
+        List<Object[]> results = violationCubeService.heatmap(startTime, endTime);
 
         List<List<Object>> data = new ArrayList<>();
         for (Object[] row : results) {
@@ -500,11 +836,41 @@ public class ViolationService {
     }
 
     /**
-     * 获取TOP违规车牌
+     * 获取TOP违规车牌（精确统计，用于正式报表）
      */
     public Map<String, Object> getTopViolators(int limit, LocalDateTime startTime, LocalDateTime endTime) {
+        return getTopViolators(limit, startTime, endTime, false, true);
+    }
+
+    /**
+     * 获取TOP违规车牌，consolidate 为 true 时把 OCR 识别误差范围内的车牌合并到违规次数最多的车牌下。
+     * exact 为 false 时优先从内存中的 Space-Saving 摘要取近似结果（approximate=true，附 maxError），
+     * 摘要无法回答该时间范围时改用 GROUP BY 精确查询
+     */
+    public Map<String, Object> getTopViolators(int limit, LocalDateTime startTime, LocalDateTime endTime,
+                                               boolean consolidate, boolean exact) {
+        // 合并会减少条目数，多取一些候选
+        int candidates = consolidate ? limit * 4 : limit;
+        if (!exact) {
+            ViolationHeavyHitters.TopResult top = violationHeavyHitters.top(candidates, startTime, endTime);
+            if (top != null) {
+                List<Map<String, Object>> data = top.getData();
+                if (consolidate) {
+                    data = consolidateViolators(data);
+                }
+                if (data.size() > limit) {
+                    data = data.subList(0, limit);
+                }
+                Map<String, Object> result = new HashMap<>();
+                result.put("data", data);
+                result.put("approximate", true);
+                result.put("maxError", top.getMaxError());
+                return result;
+            }
+        }
+
         org.springframework.data.domain.PageRequest pageRequest =
-            org.springframework.data.domain.PageRequest.of(0, limit);
+            org.springframework.data.domain.PageRequest.of(0, candidates);
         List<Object[]> results = violationRepository.findTopViolators(startTime, endTime, pageRequest);
 
         // 按车牌号聚合
@@ -537,6 +903,10 @@ public class ViolationService {
             ((Number) a.get("count")).longValue()
         ));
 
+        if (consolidate) {
+            data = consolidateViolators(data);
+        }
+
         // 只保留前N个
         if (data.size() > limit) {
             data = data.subList(0, limit);
@@ -544,9 +914,48 @@ public class ViolationService {
 
         Map<String, Object> result = new HashMap<>();
         result.put("data", data);
+        result.put("approximate", false);
         return result;
     }
 
+    /**
+     * 按违规次数从高到低，把与已保留车牌距离在 plateConsolidateDistance 以内的车牌并入该车牌（记录在 aliases 中）
+     */
+    private List<Map<String, Object>> consolidateViolators(List<Map<String, Object>> sorted) {
+        List<Map<String, Object>> merged = new ArrayList<>();
+        for (Map<String, Object> violator : sorted) {
+            String plate = violator.get("plateNumber").toString();
+            Map<String, Object> target = null;
+            for (Map<String, Object> kept : merged) {
+                if (plateFuzzyMatcher.distance(plate, kept.get("plateNumber").toString(),
+                        plateConsolidateDistance) <= plateConsolidateDistance) {
+                    target = kept;
+                    break;
+                }
+            }
+            if (target == null) {
+                violator.put("aliases", new ArrayList<String>());
+                merged.add(violator);
+                continue;
+            }
+
+            target.put("count", ((Number) target.get("count")).longValue() + ((Number) violator.get("count")).longValue());
+            @SuppressWarnings("unchecked")
+            Map<String, Long> targetTypes = (Map<String, Long>) target.get("typeBreakdown");
+            @SuppressWarnings("unchecked")
+            Map<String, Long> types = (Map<String, Long>) violator.get("typeBreakdown");
+            types.forEach((type, count) -> targetTypes.merge(type, count, Long::sum));
+            @SuppressWarnings("unchecked")
+            List<String> aliases = (List<String>) target.get("aliases");
+            aliases.add(plate);
+        }
+        merged.sort((a, b) -> Long.compare(
+            ((Number) b.get("count")).longValue(),
+            ((Number) a.get("count")).longValue()
+        ));
+        return merged;
+    }
+
     /**
      * 辅助方法：获取违规类型中文名
      */
@@ -563,4 +972,33 @@ public class ViolationService {
             default -> "其他";
         };
     }
+
+    /**
+     * 分页游标：最后一条记录的 (occurredAt, id)，对外编码为不透明的 Base64URL 字符串
+     */
+    private static final class PageCursor {
+        final LocalDateTime occurredAt;
+        final long id;
+
+        PageCursor(LocalDateTime occurredAt, long id) {
+            this.occurredAt = occurredAt;
+            this.id = id;
+        }
+
+        static String encode(Violation last) {
+            String raw = last.getOccurredAt() + "|" + last.getId();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static PageCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                return new PageCursor(LocalDateTime.parse(raw.substring(0, separator)),
+                        Long.parseLong(raw.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new BusinessException(ErrorCode.PARAM_ERROR, "无效的分页游标");
+            }
+        }
+    }
 }